@@ -0,0 +1,279 @@
+package edu.unh.cs753.benchmark;
+
+import edu.unh.cs.treccar_v2.Data;
+import edu.unh.cs753.indexing.LuceneIndexer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * The data every benchmark runs against: a small synthetic paragraph corpus, queries, qrels and runs.
+ *
+ * Everything is generated from fixed seeds, so every run (and every commit) benchmarks exactly the same data.
+ * Words are drawn from a Zipf distribution over a made-up vocabulary, so postings lengths (a few very long lists,
+ * many short ones) and document lengths look like those of the TREC CAR paragraph corpus.
+ */
+public class BenchmarkFixture {
+    public static final int PARAGRAPHS = 20000;
+
+    private static final int VOCABULARY = 30000;
+    private static final double ZIPF_EXPONENT = 1.07;
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ren", "sto", "vel", "dar", "qui", "bon", "tes", "gra", "fen", "hol", "nir", "pac",
+            "sul", "wor", "zen", "ath", "ber", "cor", "dun", "elm", "fay", "gil", "har", "ist", "jor", "kel", "lum"
+    };
+
+    private static final String[] words = new String[VOCABULARY];
+    private static final double[] cumulative = new double[VOCABULARY];
+    static {
+        double total = 0.0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            words[i] = makeWord(i);
+            total += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < VOCABULARY; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    // Spells out i in base SYLLABLES.length (lowest digit first), padded with a leading zero digit to at least two
+    // syllables so no word is an English stop word
+    private static String makeWord(int i) {
+        StringBuilder sb = new StringBuilder();
+        int n = i;
+        do {
+            sb.append(SYLLABLES[n % SYLLABLES.length]);
+            n /= SYLLABLES.length;
+        } while (n > 0);
+        if (i < SYLLABLES.length) {
+            sb.append(SYLLABLES[0]);
+        }
+        return sb.toString();
+    }
+
+    private static String randomWord(Random random) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return words[Math.min(VOCABULARY - 1, i < 0 ? -i - 1 : i)];
+    }
+
+    private static String randomText(Random random, int minWords, int maxWords) {
+        int n = minWords + random.nextInt(maxWords - minWords + 1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "" : " ").append(randomWord(random));
+        }
+        return sb.toString();
+    }
+
+    public static String paragraphId(int i) {
+        return String.format("%040x", i);
+    }
+
+    /**
+     * Function: createParagraphs
+     * Desc: Creates n paragraphs of 20 to 120 words each.
+     */
+    public static List<Data.Paragraph> createParagraphs(int n) {
+        Random random = new Random(753);
+        List<Data.Paragraph> paragraphs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Data.ParaBody body = new Data.ParaText(randomText(random, 20, 120));
+            paragraphs.add(new Data.Paragraph(paragraphId(i), Collections.singletonList(body)));
+        }
+        return paragraphs;
+    }
+
+    /**
+     * Function: createPageQueries
+     * Desc: Query text the length of a page name (1 to 4 words).
+     */
+    public static List<String> createPageQueries(int n) {
+        return createQueries(n, 1, 4, 1);
+    }
+
+    /**
+     * Function: createSectionQueries
+     * Desc: Query text the length of a page name followed by headings (4 to 12 words).
+     */
+    public static List<String> createSectionQueries(int n) {
+        return createQueries(n, 4, 12, 2);
+    }
+
+    private static List<String> createQueries(int n, int minWords, int maxWords, long seed) {
+        Random random = new Random(seed);
+        List<String> queries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            queries.add(randomText(random, minWords, maxWords));
+        }
+        return queries;
+    }
+
+    /**
+     * Function: buildIndex
+     * Desc: Indexes the fixture corpus into a new temporary directory.
+     * @return Location of the index (remove it with deleteIndex)
+     */
+    public static String buildIndex() {
+        try {
+            Path dir = Files.createTempDirectory("cs753-benchmark-index");
+            LuceneIndexer indexer = new LuceneIndexer(dir.toString(), 64);
+            indexer.doIndex(createParagraphs(PARAGRAPHS));
+            return dir.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Function: buildIndex
+     * Desc: Indexes the fixture corpus (with LuceneIndexer's id and text fields) into exactly the given number of
+     *       equally sized segments, in paragraph order.
+     * @return Location of the index (remove it with deleteIndex)
+     */
+    public static String buildIndex(int segments) {
+        try {
+            Path dir = Files.createTempDirectory("cs753-benchmark-index");
+            IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer())
+                    .setMergePolicy(NoMergePolicy.INSTANCE)
+                    .setRAMBufferSizeMB(256); // Far more than the corpus needs, so only the flushes below cut segments
+            int perSegment = (PARAGRAPHS + segments - 1) / segments;
+            try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir), config)) {
+                List<Data.Paragraph> paragraphs = createParagraphs(PARAGRAPHS);
+                for (int i = 0; i < paragraphs.size(); i++) {
+                    Data.Paragraph p = paragraphs.get(i);
+                    Document doc = new Document();
+                    doc.add(new StringField("id", p.getParaId(), Field.Store.YES));
+                    doc.add(new BinaryDocValuesField("id", new BytesRef(p.getParaId())));
+                    doc.add(new TextField("text", p.getTextOnly(), Field.Store.NO));
+                    writer.addDocument(doc);
+                    if ((i + 1) % perSegment == 0) {
+                        writer.flush();
+                    }
+                }
+                writer.commit();
+            }
+            return dir.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void deleteIndex(String indexLoc) {
+        try (Stream<Path> paths = Files.walk(Paths.get(indexLoc))) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Function: createQrels
+     * Desc: Qrels for nQueries queries with 1 to 2 * avgRelevant relevant paragraphs each (graded 1 or 2).
+     */
+    public static HashMap<String, HashMap<String, Integer>> createQrels(int nQueries, int avgRelevant) {
+        Random random = new Random(3);
+        HashMap<String, HashMap<String, Integer>> qrels = new HashMap<>();
+        for (int q = 0; q < nQueries; q++) {
+            HashMap<String, Integer> relevant = new HashMap<>();
+            int n = 1 + random.nextInt(2 * avgRelevant);
+            for (int i = 0; i < n; i++) {
+                relevant.put(paragraphId(random.nextInt(PARAGRAPHS)), 1 + random.nextInt(2));
+            }
+            qrels.put("query-" + q, relevant);
+        }
+        return qrels;
+    }
+
+    /**
+     * Function: createRun
+     * Desc: A ranking of depth paragraphs for every query in the qrels, where roughly a third of each query's
+     *       relevant paragraphs are retrieved (at random ranks).
+     */
+    public static HashMap<String, ArrayList<String>> createRun(HashMap<String, HashMap<String, Integer>> qrels,
+                                                               int depth, long seed) {
+        Random random = new Random(seed);
+        HashMap<String, ArrayList<String>> run = new HashMap<>();
+        for (String query : qrels.keySet()) {
+            ArrayList<String> ranking = new ArrayList<>(depth);
+            for (int i = 0; i < depth; i++) {
+                ranking.add(paragraphId(random.nextInt(PARAGRAPHS)));
+            }
+            for (String paraId : qrels.get(query).keySet()) {
+                if (random.nextInt(3) == 0) {
+                    ranking.set(random.nextInt(depth), paraId);
+                }
+            }
+            run.put(query, ranking);
+        }
+        return run;
+    }
+
+    /**
+     * Function: writeQrels
+     * Desc: Writes qrels to a temporary file in the TREC qrels format.
+     * @return Location of the file
+     */
+    public static String writeQrels(HashMap<String, HashMap<String, Integer>> qrels) {
+        try {
+            Path file = Files.createTempFile("cs753-benchmark", ".qrels");
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+                for (Map.Entry<String, HashMap<String, Integer>> query : qrels.entrySet()) {
+                    for (Map.Entry<String, Integer> judgment : query.getValue().entrySet()) {
+                        out.println(query.getKey() + " 0 " + judgment.getKey() + " " + judgment.getValue());
+                    }
+                }
+            }
+            return file.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Function: writeRun
+     * Desc: Writes a run to a temporary file in the TREC run format (with made-up, decreasing scores).
+     * @return Location of the file
+     */
+    public static String writeRun(HashMap<String, ArrayList<String>> run) {
+        try {
+            Path file = Files.createTempFile("cs753-benchmark", ".run");
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+                for (Map.Entry<String, ArrayList<String>> query : run.entrySet()) {
+                    List<String> ranking = query.getValue();
+                    for (int i = 0; i < ranking.size(); i++) {
+                        out.println(query.getKey() + " Q0 " + ranking.get(i) + " " + (i + 1) + " "
+                                + (ranking.size() - i) * 0.25f + " benchmark");
+                    }
+                }
+            }
+            return file.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package edu.unh.cs753.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes their results as JSON, so results of two commits can be diffed
+ * (e.g. mvn -Pbenchmark compile exec:exec -Djmh.include=SearchBenchmark -Djmh.result=before.json).
+ * Add -Djmh.prof=gc to also report allocations per operation.
+ */
+public class BenchmarkRunner {
+
+    // Arguments: [regex of benchmarks to run] [JSON result file] [profiler, e.g. gc ("none" for no profiler)]
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        String result = args.length > 1 ? args[1] : "target/jmh-result.json";
+        String profiler = args.length > 2 ? args[2] : "none";
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include("edu\\.unh\\.cs753\\.benchmark\\..*(" + include + ").*")
+                .resultFormat(ResultFormatType.JSON)
+                .result(result);
+        if (!profiler.equals("none")) {
+            options.addProfiler(profiler);
+        }
+        new Runner(options.build()).run();
+    }
+}
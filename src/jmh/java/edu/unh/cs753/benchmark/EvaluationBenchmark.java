@@ -0,0 +1,173 @@
+package edu.unh.cs753.benchmark;
+
+import edu.unh.cs753.evaluation.BinaryRunFile;
+import edu.unh.cs753.evaluation.EvaluationResults;
+import edu.unh.cs753.evaluation.EvaluationStore;
+import edu.unh.cs753.evaluation.Evaluator;
+import edu.unh.cs753.evaluation.Qrels;
+import edu.unh.cs753.evaluation.Run;
+import edu.unh.cs753.evaluation.RunCorrelations;
+import edu.unh.cs753.utils.EvaluationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.KotlinEvaluationUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation measures over a whole run, at about the size of the test200 section-level qrels
+ * (2,000 queries, ~10 relevant paragraphs each, 100 results per query), on the HashMap representation and on
+ * an EvaluationStore, and the cost of parsing the files into each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EvaluationBenchmark {
+    private static final int QUERIES = 2000;
+    private static final int DEPTH = 100;
+
+    private HashMap<String, HashMap<String, Integer>> qrels;
+    private HashMap<String, ArrayList<String>> run;
+    private List<List<Integer>> rankings1;
+    private List<List<Integer>> rankings2;
+
+    private String qrelsFile;
+    private String runFile;
+    private String binaryRunFile;
+    private Qrels storeQrels;
+    private Run storeRun;
+    private List<Run> storeRuns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        qrels = BenchmarkFixture.createQrels(QUERIES, 10);
+        run = BenchmarkFixture.createRun(qrels, DEPTH, 11);
+
+        qrelsFile = BenchmarkFixture.writeQrels(qrels);
+        runFile = BenchmarkFixture.writeRun(run);
+        binaryRunFile = runFile + ".bin";
+        BinaryRunFile.fromTrec(runFile, binaryRunFile);
+        EvaluationStore store = new EvaluationStore();
+        storeQrels = store.loadQrels(qrelsFile);
+        storeRun = store.loadRun(runFile);
+
+        // A second run to correlate with the first
+        String otherRunFile = BenchmarkFixture.writeRun(BenchmarkFixture.createRun(qrels, DEPTH, 12));
+        storeRuns = Arrays.asList(storeRun, store.loadRun(otherRunFile));
+        Files.delete(Paths.get(otherRunFile));
+
+        // Spearman compares, per query, the ranks two runs give to the same paragraphs (-1 when one run misses it)
+        Random random = new Random(5);
+        rankings1 = new ArrayList<>();
+        rankings2 = new ArrayList<>();
+        for (int q = 0; q < QUERIES; q++) {
+            List<Integer> ranks1 = new ArrayList<>();
+            List<Integer> ranks2 = new ArrayList<>();
+            for (int i = 0; i < DEPTH; i++) {
+                boolean missing = random.nextInt(10) == 0;
+                ranks1.add(missing ? -1 : i + 1);
+                ranks2.add(missing ? -1 : random.nextInt(DEPTH) + 1);
+            }
+            rankings1.add(ranks1);
+            rankings2.add(ranks2);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Paths.get(qrelsFile));
+        Files.deleteIfExists(Paths.get(runFile));
+        Files.deleteIfExists(Paths.get(binaryRunFile));
+    }
+
+    @Benchmark
+    public double getMap() {
+        return EvaluationUtils.getMap(qrels, run);
+    }
+
+    @Benchmark
+    public double getPrecisionAtR() {
+        return EvaluationUtils.getPrecisionAtR(qrels, run);
+    }
+
+    @Benchmark
+    public double getNDCG() {
+        return KotlinEvaluationUtils.INSTANCE.getNDCG(qrels, run);
+    }
+
+    // Every query of the run, like KotlinEvaluationUtils.getSpearmanResults does
+    @Benchmark
+    public double calculateSpearman() {
+        double total = 0.0;
+        for (int q = 0; q < QUERIES; q++) {
+            total += EvaluationUtils.calculateSpearman(rankings1.get(q), rankings2.get(q), (double) DEPTH * DEPTH);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double getMapStore() {
+        return EvaluationUtils.getMap(storeQrels, storeRun);
+    }
+
+    @Benchmark
+    public double getPrecisionAtRStore() {
+        return EvaluationUtils.getPrecisionAtR(storeQrels, storeRun);
+    }
+
+    @Benchmark
+    public double getNDCGStore() {
+        return KotlinEvaluationUtils.INSTANCE.getNDCG(storeQrels, storeRun);
+    }
+
+    // All six Evaluator metrics in one scan per query (compare with getMapStore + getPrecisionAtRStore + getNDCGStore)
+    @Benchmark
+    public EvaluationResults evaluateAllMetrics() {
+        return new Evaluator(storeQrels, 20).evaluate(Collections.singletonList(storeRun));
+    }
+
+    // Spearman, Kendall's tau and RBO for both orderings of a pair of runs
+    @Benchmark
+    public RunCorrelations correlateRuns() {
+        return RunCorrelations.compute(storeRuns, 0.9, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public Object parseRunFile() throws IOException {
+        return EvaluationUtils.parseRunFile(new File(runFile));
+    }
+
+    @Benchmark
+    public Object loadRun() throws IOException {
+        return new EvaluationStore().loadRun(runFile);
+    }
+
+    @Benchmark
+    public Object loadBinaryRun() throws IOException {
+        return new EvaluationStore().loadRun(binaryRunFile);
+    }
+}
@@ -0,0 +1,65 @@
+package edu.unh.cs753.benchmark;
+
+import edu.unh.cs.treccar_v2.Data;
+import edu.unh.cs753.indexing.LuceneIndexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LuceneIndexer throughput (paragraphs per second) over the fixture corpus, by number of indexing threads.
+ * Each invocation builds a fresh index, so the score includes the final commit but not the term impacts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingBenchmark {
+    @Param({ "1", "4" })
+    public int threads;
+
+    private List<Data.Paragraph> paragraphs;
+    private String indexLoc;
+
+    @Setup(Level.Trial)
+    public void createParagraphs() {
+        paragraphs = BenchmarkFixture.createParagraphs(BenchmarkFixture.PARAGRAPHS);
+    }
+
+    @Setup(Level.Invocation)
+    public void createIndexDirectory() throws IOException {
+        indexLoc = Files.createTempDirectory("cs753-benchmark-indexing").toString();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteIndexDirectory() {
+        BenchmarkFixture.deleteIndex(indexLoc);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkFixture.PARAGRAPHS)
+    public long indexParagraphs() throws IOException {
+        LuceneIndexer indexer = new LuceneIndexer(indexLoc, 64);
+        indexer.setThreads(threads);
+        indexer.setComputeImpacts(false);
+        return indexer.doIndex(paragraphs);
+    }
+}
@@ -0,0 +1,88 @@
+package edu.unh.cs753.benchmark;
+
+import edu.unh.cs753.utils.SearchUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.KotlinEvaluationUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning query text into a Lucene query: tokenizing, the standard boolean query, and the tf-idf query
+ * builders of KotlinEvaluationUtils (which also look up document frequencies in the fixture index).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryConstructionBenchmark {
+    @Param({ "page", "section" })
+    public String queryType;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private String indexLoc;
+    private IndexSearcher searcher;
+    private List<String> queries;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        indexLoc = BenchmarkFixture.buildIndex();
+        searcher = SearchUtils.createIndexSearcher(indexLoc);
+        queries = queryType.equals("page")
+                ? BenchmarkFixture.createPageQueries(1000)
+                : BenchmarkFixture.createSectionQueries(1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        BenchmarkFixture.deleteIndex(indexLoc);
+    }
+
+    // Cycles through the queries, so each call sees different text
+    private String nextQuery() {
+        next = (next + 1) % queries.size();
+        return queries.get(next);
+    }
+
+    @Benchmark
+    public ArrayList<String> createTokenList() {
+        return SearchUtils.createTokenList(nextQuery(), analyzer);
+    }
+
+    @Benchmark
+    public Query createStandardBooleanQuery() {
+        return SearchUtils.createStandardBooleanQuery(nextQuery(), "text");
+    }
+
+    @Benchmark
+    public Query queryLTN() {
+        return KotlinEvaluationUtils.INSTANCE.queryLTN(nextQuery(), searcher);
+    }
+
+    @Benchmark
+    public Query queryAPC() {
+        return KotlinEvaluationUtils.INSTANCE.queryAPC(nextQuery(), searcher);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.unh.cs753.benchmark;
+
+import edu.unh.cs753.indexing.LuceneSearcher;
+import edu.unh.cs753.indexing.SearchResults;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.KotlinSearchUtils;
+import utils.SearchMethod;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search latency per weighting scheme, for page-length and section-length queries. Queries are built once at
+ * setup, so only doSearch (scoring and the top-k) is measured. parseTopDocs measures turning TopDocs into
+ * SearchResults, looking up their paragraph ids and dropping repeated ids (run with -prof gc for allocations).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({ "standard", "lnc_ltn", "bnn_bnn", "anc_apc" })
+    public String method;
+
+    @Param({ "page", "section" })
+    public String queryType;
+
+    private String indexLoc;
+    private LuceneSearcher baseSearcher;
+    private LuceneSearcher searcher;
+    private List<Query> queries;
+    private List<TopDocs> topDocs;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        indexLoc = BenchmarkFixture.buildIndex();
+        baseSearcher = new LuceneSearcher(indexLoc);
+
+        SearchMethod searchMethod = null;
+        for (SearchMethod candidate : KotlinSearchUtils.INSTANCE.createSearchMethods(baseSearcher)) {
+            if (candidate.getRunName().equals(method)) {
+                searchMethod = candidate;
+            }
+        }
+        searcher = baseSearcher.withSimilarity(searchMethod.getSimilarity());
+
+        List<String> texts = queryType.equals("page")
+                ? BenchmarkFixture.createPageQueries(500)
+                : BenchmarkFixture.createSectionQueries(500);
+        queries = new ArrayList<>();
+        topDocs = new ArrayList<>();
+        for (String text : texts) {
+            Query query = searchMethod.getQueryCreator().invoke(text, searcher.searcher);
+            queries.add(query);
+            topDocs.add(searcher.searcher.search(query, 100));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        baseSearcher.searcher.getIndexReader().close();
+        BenchmarkFixture.deleteIndex(indexLoc);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % queries.size();
+        return next;
+    }
+
+    @Benchmark
+    public SearchResults doSearch() throws IOException {
+        return searcher.doSearch(queries.get(nextIndex()));
+    }
+
+    @Benchmark
+    public SearchResults parseTopDocs() {
+        return SearchResults.fromTopDocs(searcher, topDocs.get(nextIndex())).distinctIds();
+    }
+}
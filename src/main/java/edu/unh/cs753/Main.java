@@ -5,14 +5,35 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
+import edu.unh.cs753.evaluation.BinaryRunFile;
+import edu.unh.cs753.evaluation.EvaluationResults;
+import edu.unh.cs753.evaluation.EvaluationSelfCheck;
+import edu.unh.cs753.evaluation.EvaluationStore;
+import edu.unh.cs753.evaluation.Evaluator;
+import edu.unh.cs753.evaluation.Qrels;
+import edu.unh.cs753.evaluation.Run;
+import edu.unh.cs753.evaluation.RunCorrelations;
+import edu.unh.cs753.evaluation.SignificanceTests;
+import edu.unh.cs753.indexing.IndexFinalizer;
+import edu.unh.cs753.indexing.IndexResumeCheck;
 import edu.unh.cs753.indexing.LuceneSearcher;
 import edu.unh.cs753.indexing.LuceneIndexer;
+import edu.unh.cs753.server.SearchServer;
 import edu.unh.cs753.utils.EvaluationUtils;
+import edu.unh.cs753.utils.IndexUtils;
+import edu.unh.cs753.utils.SearchMetrics;
+import edu.unh.cs753.utils.SearchUtils;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
@@ -41,17 +62,250 @@ public class Main {
 		String path = args[1];
 
 		if (option.equals("index")) {
-			LuceneIndexer indexer  = new LuceneIndexer("paragraphs"); // The directory that will be made
-			indexer.doIndex(path);
+			double ramBufferMB = Double.parseDouble(getOption(args, "--ram-mb", "256"));
+			int nShards = Integer.parseInt(getOption(args, "--shards", "1"));
+			int shard = Integer.parseInt(getOption(args, "--shard", "-1"));
+			if (shard >= 0 && (getOption(args, "--shards", null) == null || shard >= nShards)) {
+				throw new IllegalArgumentException("--shard " + shard + " needs --shards N with N > " + shard);
+			}
+			boolean resume = hasFlag(args, "--resume");
+			IndexWriterConfig.OpenMode openMode = resume || hasFlag(args, "--append")
+					? IndexWriterConfig.OpenMode.CREATE_OR_APPEND // Keeps the existing index and upserts paragraphs
+					: IndexWriterConfig.OpenMode.CREATE;
+			LuceneIndexer indexer = shard >= 0
+					? LuceneIndexer.forSingleShard("paragraphs", ramBufferMB, nShards, shard, openMode) // One shard
+					: new LuceneIndexer("paragraphs", ramBufferMB, nShards, openMode); // The directory that will be made
+			indexer.setResume(resume);
+			indexer.setStoreText(!hasFlag(args, "--no-store-text"));
+			indexer.setComputeImpacts(!hasFlag(args, "--no-impacts"));
+			indexer.setThreads(Integer.parseInt(getOption(args, "--threads",
+					String.valueOf(Runtime.getRuntime().availableProcessors()))));
+			indexer.setCommitInterval(Long.parseLong(getOption(args, "--commit-secs", "0")));
+
+			long start = System.nanoTime();
+			long nDocs = indexer.doIndex(path);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Indexed %d paragraphs in %.1f seconds (%.1f docs/sec)%n",
+					nDocs, seconds, nDocs / Math.max(seconds, 1e-9));
+			System.out.printf("Index size: %.1f MB%n", IndexUtils.getIndexSizeBytes("paragraphs") / (1024.0 * 1024.0));
+		}
+		else if (option.equals("check-resume")) {
+			// Interrupts a build of the cbor file at path after --stop-after paragraphs, resumes it, and checks it
+			int stopAfter = Integer.parseInt(getOption(args, "--stop-after", "1000"));
+			List<String> problems = IndexResumeCheck.run(path, stopAfter);
+			for (String problem : problems) {
+				System.out.println(problem);
+			}
+			System.out.println(problems.isEmpty() ? "Resume check passed" : "Resume check FAILED");
+		}
+		else if (option.equals("self-check")) {
+			// Checks the evaluation code against simple references; path is a directory for temporary files
+			List<String> problems = EvaluationSelfCheck.run(path);
+			for (String problem : problems) {
+				System.out.println(problem);
+			}
+			System.out.println(problems.isEmpty() ? "Self check passed" : "Self check FAILED");
+		}
+		else if (option.equals("finalize")) {
+			// Prepares a finished index for read-only serving (see IndexFinalizer); path is the index directory
+			IndexFinalizer finalizer = new IndexFinalizer();
+			finalizer.setMaxSegments(Integer.parseInt(getOption(args, "--segments", "1")));
+			String storedFields = getOption(args, "--stored-fields", null); // best_speed or best_compression
+			if (storedFields != null) {
+				finalizer.setStoredFieldsMode(Lucene50StoredFieldsFormat.Mode.valueOf(storedFields.toUpperCase()));
+			}
+			finalizer.setPreload(hasFlag(args, "--preload"));
+
+			long start = System.nanoTime();
+			List<Map<String, String>> results = finalizer.finalizeIndex(path);
+			System.out.printf("Finalized %s in %.1f seconds%n", path, (System.nanoTime() - start) / 1e9);
+			for (Map<String, String> userData : results) {
+				System.out.printf("  %s segments, %s docs, %s terms, %s tokens%n",
+						userData.get(IndexFinalizer.SEGMENTS_KEY), userData.get(IndexFinalizer.NUM_DOCS_KEY),
+						userData.get(IndexFinalizer.TERMS_KEY), userData.get(IndexFinalizer.SUM_TOTAL_TERM_FREQ_KEY));
+			}
+			System.out.printf("Index size: %.1f MB%n", IndexUtils.getIndexSizeBytes(path) / (1024.0 * 1024.0));
 		}
 		else if (option.equals("search")) {
 			String cborOutlineLoc = args[2];
-			KotlinSearchUtils.INSTANCE.runAssignment3Search(path, cborOutlineLoc);
+			long start = System.nanoTime();
+			int nThreads = Integer.parseInt(getOption(args, "--threads",
+					String.valueOf(Runtime.getRuntime().availableProcessors())));
+			boolean singlePass = hasFlag(args, "--single-pass"); // Scores all methods in one pass over the postings
+			boolean pageGrouped = hasFlag(args, "--page-grouped"); // Reuses page-name scores for each section
+			int cacheSize = Integer.parseInt(getOption(args, "--cache-size", "10000")); // 0 turns the result cache off
+			SearchMetrics.get().setEnabled(!hasFlag(args, "--no-metrics")); // Per-stage timings and latency histograms
+			KotlinSearchUtils.INSTANCE.runAssignment3Search(path, cborOutlineLoc, nThreads, singlePass, pageGrouped,
+					cacheSize);
+			System.out.printf("Search finished in %.1f seconds%n", (System.nanoTime() - start) / 1e9);
+			if (SearchMetrics.get().isEnabled()) {
+				System.out.print(SearchMetrics.get().summary());
+				String metricsJson = getOption(args, "--metrics-json", null);
+				if (metricsJson != null) {
+					SearchMetrics.get().writeJson(metricsJson);
+				}
+			}
+		}
+		else if (option.equals("convert")) {
+			// TREC text run -> binary run, or binary -> text (whichever the input isn't)
+			String output = args[2];
+			if (BinaryRunFile.isBinary(path)) {
+				BinaryRunFile.open(path).toTrec(output);
+			} else {
+				BinaryRunFile.fromTrec(path, output);
+			}
+			System.out.printf("%s (%d bytes) -> %s (%d bytes)%n", path, new File(path).length(), output,
+					new File(output).length());
+		}
+		else if (option.equals("significance")) {
+			// path is the qrels file; every pair of the run files after it is tested on one metric
+			EvaluationStore store = new EvaluationStore();
+			Qrels qrels = store.loadQrels(path);
+			List<Run> runs = store.loadRuns(getRunFiles(args, 2));
+			Evaluator.Metric metric = Evaluator.Metric.forName(getOption(args, "--metric", "map"));
+			SignificanceTests tests = new SignificanceTests(Integer.parseInt(getOption(args, "--trials", "10000")),
+					Long.parseLong(getOption(args, "--seed", "753")),
+					Double.parseDouble(getOption(args, "--alpha", "0.05")));
+			ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(getOption(args, "--threads",
+					String.valueOf(Runtime.getRuntime().availableProcessors()))));
+			try {
+				EvaluationResults results = new Evaluator(qrels, Integer.parseInt(getOption(args, "--k", "20")))
+						.evaluate(runs, pool);
+				for (SignificanceTests.Comparison comparison : tests.compareAll(results, metric, pool)) {
+					System.out.println(comparison);
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+		else if (option.equals("correlate")) {
+			// Every run file given (or in the directories given) against every other one
+			EvaluationStore store = new EvaluationStore();
+			List<Run> runs = store.loadRuns(getRunFiles(args, 1));
+			ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(getOption(args, "--threads",
+					String.valueOf(Runtime.getRuntime().availableProcessors()))));
+			RunCorrelations correlations;
+			try {
+				double rboP = Double.parseDouble(getOption(args, "--rbo-p", "0.9"));
+				correlations = RunCorrelations.compute(runs, rboP, pool);
+			} finally {
+				pool.shutdown();
+			}
+			for (RunCorrelations.Measure measure : RunCorrelations.Measure.values()) {
+				System.out.println(correlations.format(measure));
+			}
+		}
+		else if (option.equals("search-eval")) {
+			// Searches like "search", but scores the results in memory instead of (or as well as) writing run files
+			String cborOutlineLoc = args[2];
+			long start = System.nanoTime();
+			SearchMetrics.get().setEnabled(!hasFlag(args, "--no-metrics"));
+			KotlinSearchUtils.INSTANCE.runSearchAndEvaluate(path, cborOutlineLoc,
+					getOption(args, "--page-qrels", null), getOption(args, "--section-qrels", null),
+					Integer.parseInt(getOption(args, "--threads",
+							String.valueOf(Runtime.getRuntime().availableProcessors()))),
+					hasFlag(args, "--single-pass"), hasFlag(args, "--page-grouped"),
+					Integer.parseInt(getOption(args, "--cache-size", "10000")),
+					hasFlag(args, "--write-runs"), Integer.parseInt(getOption(args, "--k", "20")));
+			System.out.printf("Search and evaluation finished in %.1f seconds%n", (System.nanoTime() - start) / 1e9);
+			if (SearchMetrics.get().isEnabled()) {
+				System.out.print(SearchMetrics.get().summary());
+				String metricsJson = getOption(args, "--metrics-json", null);
+				if (metricsJson != null) {
+					SearchMetrics.get().writeJson(metricsJson);
+				}
+			}
+		}
+		else if (option.equals("serve")) {
+			// Keeps the index open (and warm) and answers queries over HTTP until the process is killed
+			String warmupLoc = getOption(args, "--warmup", null);
+			int warmupCount = Integer.parseInt(getOption(args, "--warmup-count", "200"));
+			List<String> warmupQueries = warmupLoc == null
+					? new ArrayList<>()
+					: KotlinSearchUtils.INSTANCE.getSampleQueries(warmupLoc, warmupCount);
+			int cacheSize = Integer.parseInt(getOption(args, "--cache-size", "10000"));
+
+			// Searches each query's segments on this many threads (0 searches them on the request thread)
+			int searchThreads = Integer.parseInt(getOption(args, "--search-threads", "0"));
+			ExecutorService searchExecutor = searchThreads > 0 ? SearchUtils.createSearchExecutor(searchThreads) : null;
+			SearchServer server = new SearchServer(path, warmupQueries, cacheSize, searchExecutor, searchThreads);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					server.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				if (searchExecutor != null) {
+					searchExecutor.shutdown();
+				}
+			}));
+			server.start(Integer.parseInt(getOption(args, "--port", "8080")),
+					Integer.parseInt(getOption(args, "--threads",
+							String.valueOf(Runtime.getRuntime().availableProcessors()))),
+					Long.parseLong(getOption(args, "--refresh-secs", "5")));
 		}
         else if (option.equals("spearman")) {
             KotlinEvaluationUtils.INSTANCE.getSpearmanResults(path);
         }
+		else if (option.equals("evaluate")) {
+			// path is the qrels file; the run files (or directories of run files) follow it
+			EvaluationStore store = new EvaluationStore();
+			Qrels qrels = store.loadQrels(path);
+			List<Run> runs = store.loadRuns(getRunFiles(args, 2));
+			Evaluator evaluator = new Evaluator(qrels, Integer.parseInt(getOption(args, "--k", "20")));
+			ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(getOption(args, "--threads",
+					String.valueOf(Runtime.getRuntime().availableProcessors()))));
+			EvaluationResults results;
+			try {
+				results = evaluator.evaluate(runs, pool);
+			} finally {
+				pool.shutdown();
+			}
+			System.out.print(results.formatTable());
+			String perQuery = getOption(args, "--per-query", null);
+			if (perQuery != null) {
+				results.writePerQuery(perQuery);
+			}
+		}
+
+	}
 
+	// Returns the value that follows a flag (e.g. "--threads 8"), or the default if the flag wasn't given
+	private static String getOption(String[] args, String flag, String defaultValue) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals(flag)) {
+				return args[i + 1];
+			}
+		}
+		return defaultValue;
+	}
+
+	// Returns the run files given from args[from] up to the first flag, with directories expanded to their files
+	private static List<String> getRunFiles(String[] args, int from) {
+		List<String> runFiles = new ArrayList<>();
+		for (int i = from; i < args.length && !args[i].startsWith("--"); i++) {
+			File file = new File(args[i]);
+			if (file.isDirectory()) {
+				File[] children = file.listFiles(File::isFile);
+				Arrays.sort(children);
+				for (File child : children) {
+					runFiles.add(child.getPath());
+				}
+			} else {
+				runFiles.add(file.getPath());
+			}
+		}
+		return runFiles;
+	}
+
+	// Returns true if a flag that takes no value (e.g. "--resume") was given
+	private static boolean hasFlag(String[] args, String flag) {
+		for (String arg : args) {
+			if (arg.equals(flag)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 }
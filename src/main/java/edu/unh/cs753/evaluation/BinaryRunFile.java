@@ -0,0 +1,403 @@
+package edu.unh.cs753.evaluation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A run stored in columns instead of TREC text lines: a query dictionary, a paragraph-id dictionary, and per entry
+ * an int paragraph ordinal and a float score (plus an int rank, only if the ranks aren't simply 1, 2, 3, ...). The
+ * "Q0" and method name columns, the same on every line, are stored once.
+ *
+ * Files are memory-mapped when opened, and the accessors read straight from the mapping. EvaluationStore.loadRun
+ * reads these files as well as text runs (it tells them apart by the magic bytes).
+ *
+ * Layout (big-endian):
+ *   "CS753RUN", version, number of queries, of paragraphs and of entries, flags
+ *   iteration and method name strings (int length, UTF-8 bytes)
+ *   query dictionary: int[queries + 1] byte offsets, then the UTF-8 bytes
+ *   paragraph dictionary: int[paragraphs + 1] byte offsets, then the UTF-8 bytes
+ *   int[queries + 1] first entry of each query
+ *   int[entries] paragraph ordinals, float[entries] scores, and int[entries] ranks if flagged
+ */
+public class BinaryRunFile {
+    private static final byte[] MAGIC = "CS753RUN".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int EXPLICIT_RANKS = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 5 * 4;
+
+    private final String iteration;
+    private final String methodName;
+    private final int nQueries;
+    private final int nParagraphs;
+    private final int nEntries;
+    private final IntBuffer queryOffsets;
+    private final ByteBuffer queryBytes;
+    private final IntBuffer paragraphOffsets;
+    private final ByteBuffer paragraphBytes;
+    private final IntBuffer queryStarts;
+    private final IntBuffer paragraphs;
+    private final FloatBuffer scores;
+    private final IntBuffer ranks;
+
+    private BinaryRunFile(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+            throw new IOException("Not a binary run file (or an unsupported version)");
+        }
+        nQueries = buffer.getInt();
+        nParagraphs = buffer.getInt();
+        nEntries = buffer.getInt();
+        int flags = buffer.getInt();
+        iteration = readString(buffer);
+        methodName = readString(buffer);
+
+        queryOffsets = slice(buffer, 4 * (nQueries + 1)).asIntBuffer();
+        queryBytes = slice(buffer, queryOffsets.get(nQueries));
+        paragraphOffsets = slice(buffer, 4 * (nParagraphs + 1)).asIntBuffer();
+        paragraphBytes = slice(buffer, paragraphOffsets.get(nParagraphs));
+        queryStarts = slice(buffer, 4 * (nQueries + 1)).asIntBuffer();
+        paragraphs = slice(buffer, 4 * nEntries).asIntBuffer();
+        scores = slice(buffer, 4 * nEntries).asFloatBuffer();
+        ranks = (flags & EXPLICIT_RANKS) != 0 ? slice(buffer, 4 * nEntries).asIntBuffer() : null;
+    }
+
+    // The next length bytes of the buffer, as a buffer of their own
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Function: isBinary
+     * @return True if the file starts with the magic bytes of a binary run file
+     */
+    public static boolean isBinary(String path) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            byte[] magic = new byte[MAGIC.length];
+            int n = 0;
+            while (n < magic.length) {
+                int read = in.read(magic, n, magic.length - n);
+                if (read < 0) {
+                    return false;
+                }
+                n += read;
+            }
+            return Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /**
+     * Function: open
+     * Desc: Memory-maps a binary run file (which can't be larger than 2 GB).
+     */
+    public static BinaryRunFile open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return new BinaryRunFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public int getQueryCount() {
+        return nQueries;
+    }
+
+    public String getQueryId(int q) {
+        return getString(queryOffsets, queryBytes, q);
+    }
+
+    /**
+     * @return The first entry of the q-th query (its entries run up to getEnd(q))
+     */
+    public int getStart(int q) {
+        return queryStarts.get(q);
+    }
+
+    public int getEnd(int q) {
+        return queryStarts.get(q + 1);
+    }
+
+    /**
+     * @return The paragraph ordinal of an entry (see getParagraphId)
+     */
+    public int getParagraph(int entry) {
+        return paragraphs.get(entry);
+    }
+
+    public String getParagraphId(int ordinal) {
+        return getString(paragraphOffsets, paragraphBytes, ordinal);
+    }
+
+    public float getScore(int entry) {
+        return scores.get(entry);
+    }
+
+    /**
+     * @return The rank of an entry, as written in the original run
+     */
+    public int getRank(int entry) {
+        return ranks != null ? ranks.get(entry) : entry - findQuery(entry) + 1;
+    }
+
+    private int findQuery(int entry) {
+        int low = 0;
+        int high = nQueries - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (queryStarts.get(middle) <= entry) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return queryStarts.get(low);
+    }
+
+    private static String getString(IntBuffer offsets, ByteBuffer bytes, int i) {
+        byte[] id = new byte[offsets.get(i + 1) - offsets.get(i)];
+        ByteBuffer view = bytes.duplicate();
+        view.position(offsets.get(i));
+        view.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Function: toRun
+     * Desc: Loads the run into a store: the dictionaries are interned once (not once per line), and the columns are
+     *       copied out in bulk.
+     */
+    Run toRun(IdDictionary ids, String name) {
+        IdDictionary local = new IdDictionary();
+        int[] queryNumbers = internAll(local, queryOffsets, queryBytes, nQueries);
+        int[] paragraphNumbers = internAll(local, paragraphOffsets, paragraphBytes, nParagraphs);
+        int[] remap = ids.internAll(local);
+
+        int[] queries = new int[nQueries];
+        IntIntMap queryIndex = new IntIntMap(nQueries);
+        int[][] runParagraphs = new int[nQueries][];
+        int[][] runRanks = new int[nQueries][];
+        float[][] runScores = new float[nQueries][];
+        IntBuffer paragraphColumn = paragraphs.duplicate();
+        FloatBuffer scoreColumn = scores.duplicate();
+        IntBuffer rankColumn = ranks == null ? null : ranks.duplicate();
+        for (int q = 0; q < nQueries; q++) {
+            queries[q] = remap[queryNumbers[q]];
+            queryIndex.put(queries[q], q);
+
+            int length = getEnd(q) - getStart(q);
+            runParagraphs[q] = new int[length];
+            paragraphColumn.get(runParagraphs[q]);
+            for (int i = 0; i < length; i++) {
+                runParagraphs[q][i] = remap[paragraphNumbers[runParagraphs[q][i]]];
+            }
+            runScores[q] = new float[length];
+            scoreColumn.get(runScores[q]);
+            runRanks[q] = new int[length];
+            if (rankColumn != null) {
+                rankColumn.get(runRanks[q]);
+                EvaluationStore.sortByRank(runParagraphs[q], runRanks[q], runScores[q]);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    runRanks[q][i] = i + 1;
+                }
+            }
+        }
+        return new Run(name, ids, queries, queryIndex, runParagraphs, runRanks, runScores);
+    }
+
+    private static int[] internAll(IdDictionary dictionary, IntBuffer offsets, ByteBuffer bytes, int n) {
+        byte[] all = new byte[offsets.get(n)];
+        bytes.duplicate().get(all);
+        int[] numbers = new int[n];
+        for (int i = 0; i < n; i++) {
+            numbers[i] = dictionary.intern(all, offsets.get(i), offsets.get(i + 1) - offsets.get(i));
+        }
+        return numbers;
+    }
+
+    /**
+     * Function: toTrec
+     * Desc: Writes the run back out as TREC text, with the same lines (and scores printed as RunFileWriter does).
+     * @param path: Location of the text run file (overwritten).
+     */
+    public void toTrec(String path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            String[] paragraphIds = new String[nParagraphs];
+            for (int q = 0; q < nQueries; q++) {
+                String queryId = getQueryId(q);
+                for (int entry = getStart(q); entry < getEnd(q); entry++) {
+                    int ordinal = getParagraph(entry);
+                    if (paragraphIds[ordinal] == null) {
+                        paragraphIds[ordinal] = getParagraphId(ordinal);
+                    }
+                    int rank = ranks != null ? ranks.get(entry) : entry - getStart(q) + 1;
+                    out.write(queryId + " " + iteration + " " + paragraphIds[ordinal] + " " + rank + " "
+                            + (double) getScore(entry) + " " + methodName + "\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Function: fromTrec
+     * Desc: Converts a TREC text run file to a binary one. Lines of the same query are kept in file order, with
+     *       queries in order of first appearance.
+     * @param textPath: Location of the text run file.
+     * @param binaryPath: Location of the binary run file (overwritten).
+     * @throws IOException: Also if lines disagree on the "Q0" or method name column, which are stored once.
+     */
+    public static void fromTrec(String textPath, String binaryPath) throws IOException {
+        TrecFileParser parser = new TrecFileParser(textPath);
+        IdDictionary queryIds = new IdDictionary();
+        IdDictionary paragraphIds = new IdDictionary();
+        int[] lineQueries = new int[1024];
+        int[] lineParagraphs = new int[1024];
+        int[] lineRanks = new int[1024];
+        float[] lineScores = new float[1024];
+        int nLines = 0;
+        String iteration = null;
+        String methodName = null;
+        while (parser.nextLine()) {
+            if (nLines == lineQueries.length) {
+                lineQueries = Arrays.copyOf(lineQueries, nLines * 2);
+                lineParagraphs = Arrays.copyOf(lineParagraphs, nLines * 2);
+                lineRanks = Arrays.copyOf(lineRanks, nLines * 2);
+                lineScores = Arrays.copyOf(lineScores, nLines * 2);
+            }
+            parser.requireField("query id");
+            lineQueries[nLines] = queryIds.intern(parser.data, parser.start, parser.end - parser.start);
+            parser.requireField("Q0");
+            iteration = sameValue(parser, iteration, "Q0 column");
+            parser.requireField("paragraph id");
+            lineParagraphs[nLines] = paragraphIds.intern(parser.data, parser.start, parser.end - parser.start);
+            parser.requireField("rank");
+            lineRanks[nLines] = parser.parseInt();
+            parser.requireField("score");
+            lineScores[nLines] = parser.parseFloat();
+            parser.requireField("method name");
+            methodName = sameValue(parser, methodName, "method name");
+            nLines++;
+        }
+
+        // Group the lines by query (queries are numbered in order of first appearance)
+        int nQueries = queryIds.size();
+        int[] queryStarts = new int[nQueries + 1];
+        for (int line = 0; line < nLines; line++) {
+            queryStarts[lineQueries[line] + 1]++;
+        }
+        for (int q = 0; q < nQueries; q++) {
+            queryStarts[q + 1] += queryStarts[q];
+        }
+        int[] filled = Arrays.copyOf(queryStarts, nQueries);
+        int[] entryParagraphs = new int[nLines];
+        int[] entryRanks = new int[nLines];
+        float[] entryScores = new float[nLines];
+        boolean explicitRanks = false;
+        for (int line = 0; line < nLines; line++) {
+            int q = lineQueries[line];
+            int entry = filled[q]++;
+            entryParagraphs[entry] = lineParagraphs[line];
+            entryRanks[entry] = lineRanks[line];
+            entryScores[entry] = lineScores[line];
+            explicitRanks |= lineRanks[line] != entry - queryStarts[q] + 1;
+        }
+
+        byte[] iterationBytes = (iteration == null ? "Q0" : iteration).getBytes(StandardCharsets.UTF_8);
+        byte[] methodBytes = (methodName == null ? "" : methodName).getBytes(StandardCharsets.UTF_8);
+        byte[][] queryBytes = allBytes(queryIds);
+        byte[][] paragraphBytes = allBytes(paragraphIds);
+        long size = HEADER_SIZE + 8 + iterationBytes.length + methodBytes.length
+                + dictionarySize(queryBytes) + dictionarySize(paragraphBytes)
+                + 4L * (nQueries + 1) + (explicitRanks ? 12L : 8L) * nLines;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(textPath + " is too large for a binary run file");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) size);
+        out.put(MAGIC).putInt(VERSION).putInt(nQueries).putInt(paragraphIds.size()).putInt(nLines)
+           .putInt(explicitRanks ? EXPLICIT_RANKS : 0);
+        out.putInt(iterationBytes.length).put(iterationBytes).putInt(methodBytes.length).put(methodBytes);
+        putDictionary(out, queryBytes);
+        putDictionary(out, paragraphBytes);
+        for (int start : queryStarts) {
+            out.putInt(start);
+        }
+        for (int i = 0; i < nLines; i++) {
+            out.putInt(entryParagraphs[i]);
+        }
+        for (int i = 0; i < nLines; i++) {
+            out.putFloat(entryScores[i]);
+        }
+        if (explicitRanks) {
+            for (int i = 0; i < nLines; i++) {
+                out.putInt(entryRanks[i]);
+            }
+        }
+        out.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(binaryPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    // The current field, which has to be the same on every line
+    private static String sameValue(TrecFileParser parser, String value, String column) throws IOException {
+        String field = parser.field();
+        if (value != null && !value.equals(field)) {
+            throw parser.error("the " + column + " differs between lines (" + value + ", " + field + ")");
+        }
+        return field;
+    }
+
+    private static byte[][] allBytes(IdDictionary dictionary) {
+        byte[][] bytes = new byte[dictionary.size()][];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = dictionary.getBytes(i);
+        }
+        return bytes;
+    }
+
+    private static long dictionarySize(byte[][] entries) {
+        long size = 4L * (entries.length + 1);
+        for (byte[] entry : entries) {
+            size += entry.length;
+        }
+        return size;
+    }
+
+    private static void putDictionary(ByteBuffer out, byte[][] entries) {
+        int offset = 0;
+        out.putInt(offset);
+        for (byte[] entry : entries) {
+            offset += entry.length;
+            out.putInt(offset);
+        }
+        for (byte[] entry : entries) {
+            out.put(entry);
+        }
+    }
+}
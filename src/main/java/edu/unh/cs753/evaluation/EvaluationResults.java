@@ -0,0 +1,119 @@
+package edu.unh.cs753.evaluation;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Values of every Evaluator metric, per run and per query, with their means over the qrels' queries.
+ */
+public class EvaluationResults {
+    private static final Evaluator.Metric[] METRICS = Evaluator.Metric.values();
+
+    private final Evaluator evaluator;
+    private final String[] runNames;
+    private final double[][] values;
+    private final double[][] means;
+
+    EvaluationResults(Evaluator evaluator, String[] runNames, double[][] values) {
+        this.evaluator = evaluator;
+        this.runNames = runNames;
+        this.values = values;
+        this.means = new double[runNames.length][METRICS.length];
+        int nQueries = evaluator.getQrels().size();
+        for (int run = 0; run < runNames.length; run++) {
+            for (int q = 0; q < nQueries; q++) {
+                for (int m = 0; m < METRICS.length; m++) {
+                    means[run][m] += values[run][q * METRICS.length + m];
+                }
+            }
+            for (int m = 0; m < METRICS.length; m++) {
+                means[run][m] /= nQueries;
+            }
+        }
+    }
+
+    public int getRunCount() {
+        return runNames.length;
+    }
+
+    public String getRunName(int run) {
+        return runNames[run];
+    }
+
+    /**
+     * @return A metric's value for one run and query (by position in the qrels)
+     */
+    public double getValue(int run, int q, Evaluator.Metric metric) {
+        return values[run][q * METRICS.length + metric.ordinal()];
+    }
+
+    /**
+     * @return A metric's value for every query of the qrels (in qrels order), for one run
+     */
+    public double[] getValues(int run, Evaluator.Metric metric) {
+        double[] perQuery = new double[evaluator.getQrels().size()];
+        for (int q = 0; q < perQuery.length; q++) {
+            perQuery[q] = getValue(run, q, metric);
+        }
+        return perQuery;
+    }
+
+    /**
+     * @return A metric's mean over all of the qrels' queries, for one run
+     */
+    public double getMean(int run, Evaluator.Metric metric) {
+        return means[run][metric.ordinal()];
+    }
+
+    /**
+     * Function: formatTable
+     * Desc: One row per run with the mean of every metric.
+     */
+    public String formatTable() {
+        int nameWidth = 8;
+        for (String name : runNames) {
+            nameWidth = Math.max(nameWidth, name.length());
+        }
+        StringBuilder sb = new StringBuilder(String.format("%-" + nameWidth + "s", "run"));
+        for (Evaluator.Metric metric : METRICS) {
+            sb.append(String.format(" %10s", metric.label(evaluator.getK())));
+        }
+        sb.append(System.lineSeparator());
+        for (int run = 0; run < runNames.length; run++) {
+            sb.append(String.format("%-" + nameWidth + "s", runNames[run]));
+            for (int m = 0; m < METRICS.length; m++) {
+                sb.append(String.format(" %10.4f", means[run][m]));
+            }
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Function: writePerQuery
+     * Desc: Writes every value as a "run metric query value" line (like trec_eval -q), then each run's means with
+     *       "all" as the query.
+     * @param path: Location of the output file (overwritten).
+     */
+    public void writePerQuery(String path) throws IOException {
+        Qrels qrels = evaluator.getQrels();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))) {
+            for (int run = 0; run < runNames.length; run++) {
+                for (int q = 0; q < qrels.size(); q++) {
+                    String query = qrels.getIds().get(qrels.getQuery(q));
+                    for (Evaluator.Metric metric : METRICS) {
+                        out.printf("%s\t%s\t%s\t%.4f%n", runNames[run], metric.label(evaluator.getK()), query,
+                                getValue(run, q, metric));
+                    }
+                }
+                for (Evaluator.Metric metric : METRICS) {
+                    out.printf("%s\t%s\tall\t%.4f%n", runNames[run], metric.label(evaluator.getK()),
+                            getMean(run, metric));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package edu.unh.cs753.evaluation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic checks of the evaluation package's own data structures and measures, each against a simple
+ * reference: Kendall's tau-b against an O(n^2) pair count, RBO against a worked example, the binary run format
+ * against a text -> binary -> text round trip, and IntIntMap, IdDictionary and TrecFileParser against the JDK.
+ *
+ * Random inputs come from a fixed seed, so a failure can be reproduced by running the check again.
+ */
+public class EvaluationSelfCheck {
+    private static final long SEED = 753;
+    private static final double EPSILON = 1e-12;
+
+    private final List<String> problems = new ArrayList<>();
+
+    /**
+     * Function: run
+     * Desc: Runs every check. Temporary files are written to a new directory inside scratchDir, removed afterwards.
+     * @param scratchDir: Directory for temporary files.
+     * @return Problems found, empty if every check passed
+     */
+    public static List<String> run(String scratchDir) throws IOException {
+        EvaluationSelfCheck check = new EvaluationSelfCheck();
+        check.checkKendallTau();
+        check.checkRbo();
+        check.checkIntIntMap();
+        check.checkIdDictionary();
+        Path dir = Files.createTempDirectory(Paths.get(scratchDir), "cs753-self-check");
+        try {
+            check.checkTrecFileParser(dir);
+            check.checkBinaryRoundTrip(dir);
+        } finally {
+            for (String name : dir.toFile().list()) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+            Files.deleteIfExists(dir);
+        }
+        return check.problems;
+    }
+
+    private void expect(boolean condition, String problem) {
+        if (!condition) {
+            problems.add(problem);
+        }
+    }
+
+    private void expectClose(double expected, double actual, String what) {
+        boolean bothNaN = Double.isNaN(expected) && Double.isNaN(actual);
+        expect(bothNaN || Math.abs(expected - actual) <= EPSILON, what + ": expected " + expected + ", got " + actual);
+    }
+
+    // Kendall's tau-b straight from the definition: every pair is concordant, discordant or tied
+    private static double bruteForceTauB(int[] ranks1, int[] ranks2) {
+        int n = ranks1.length;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        long concordant = 0;
+        long discordant = 0;
+        long tiedFirstOnly = 0;
+        long tiedSecondOnly = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                int d1 = Integer.compare(ranks1[i], ranks1[j]);
+                int d2 = Integer.compare(ranks2[i], ranks2[j]);
+                if (d1 == 0 && d2 == 0) {
+                    continue;
+                } else if (d1 == 0) {
+                    tiedFirstOnly++;
+                } else if (d2 == 0) {
+                    tiedSecondOnly++;
+                } else if (d1 == d2) {
+                    concordant++;
+                } else {
+                    discordant++;
+                }
+            }
+        }
+        return (concordant - discordant) / Math.sqrt((double) (concordant + discordant + tiedFirstOnly)
+                * (concordant + discordant + tiedSecondOnly));
+    }
+
+    private void checkKendallTau() {
+        Random random = new Random(SEED);
+        for (int trial = 0; trial < 200; trial++) {
+            int n = random.nextInt(60);
+            // A small rank range makes ties on either side (and on both) common
+            int range = trial % 2 == 0 ? n + 1 : Math.max(1, n / 4);
+            int[] ranks1 = new int[n];
+            int[] ranks2 = new int[n];
+            long[] pairs = new long[n];
+            for (int i = 0; i < n; i++) {
+                ranks1[i] = 1 + random.nextInt(range);
+                ranks2[i] = 1 + random.nextInt(range);
+                pairs[i] = ((long) ranks1[i] << 32) | ranks2[i];
+            }
+            double expected = bruteForceTauB(ranks1, ranks2);
+            double actual = RankCorrelation.kendallTauB(pairs, n);
+            // All pairs tied on one side makes both 0/0; only compare when the reference is defined
+            if (!Double.isNaN(expected) || n < 2) {
+                expectClose(expected, actual, "tau-b, trial " + trial + " (n = " + n + ")");
+            }
+        }
+
+        int[] paragraphs = { 10, 11, 12, 13, 14 };
+        int[] ranks = { 1, 2, 3, 4, 5 };
+        expectClose(1.0, RankCorrelation.kendallTau(paragraphs, ranks, paragraphs, ranks), "tau-b, same ranking");
+        int[] reversed = { 5, 4, 3, 2, 1 };
+        expectClose(-1.0, RankCorrelation.kendallTau(paragraphs, ranks, paragraphs, reversed), "tau-b, reversed");
+    }
+
+    private void checkRbo() {
+        // A = a b c d, B = b a c e with p = 0.9. Overlap at depths 1..4 is 0, 2, 3, 3, so
+        // RBO_ext = 3/4 * 0.9^4 + (0.1 / 0.9) * (0 + 2/2 * 0.9^2 + 3/3 * 0.9^3 + 3/4 * 0.9^4)
+        //         = 0.492075 + 2.031075 / 9 = 0.71775
+        int[] first = { 1, 2, 3, 4 };
+        int[] second = { 2, 1, 3, 5 };
+        expectClose(0.71775, RankCorrelation.rbo(first, second, 0.9), "RBO, worked example");
+        expectClose(0.71775, RankCorrelation.rbo(second, first, 0.9), "RBO, worked example swapped");
+        expectClose(1.0, RankCorrelation.rbo(first, first, 0.9), "RBO, same ranking");
+        expectClose(0.0, RankCorrelation.rbo(first, new int[] { 5, 6, 7, 8 }, 0.9), "RBO, disjoint rankings");
+        expectClose(0.0, RankCorrelation.rbo(first, new int[0], 0.9), "RBO, empty ranking");
+    }
+
+    private void checkIntIntMap() {
+        Random random = new Random(SEED);
+        IntIntMap map = new IntIntMap(2);
+        Map<Integer, Integer> reference = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            // Keys repeat (so values get replaced) and include 0 and the largest int
+            int key = i % 1000 == 0 ? Integer.MAX_VALUE : random.nextInt(20000);
+            int value = random.nextInt();
+            map.put(key, value);
+            reference.put(key, value);
+        }
+        map.put(0, -7);
+        reference.put(0, -7);
+
+        expect(map.size() == reference.size(), "IntIntMap size " + map.size() + " != " + reference.size());
+        for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+            int key = entry.getKey();
+            expect(map.containsKey(key) && map.get(key, 0) == entry.getValue(), "IntIntMap lost key " + key);
+        }
+        for (int key = 20000; key < 21000; key++) {
+            expect(!map.containsKey(key) && map.get(key, -99) == -99, "IntIntMap has a key never put: " + key);
+        }
+        int[] keys = map.keys();
+        int[] values = map.values();
+        expect(keys.length == reference.size(), "IntIntMap.keys() has " + keys.length + " keys");
+        for (int i = 0; i < keys.length; i++) {
+            expect(reference.get(keys[i]) == values[i], "IntIntMap.values() out of step with keys() at " + i);
+        }
+
+        boolean rejected = false;
+        try {
+            map.put(-1, 0);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        expect(rejected, "IntIntMap accepted a negative key");
+    }
+
+    private void checkIdDictionary() {
+        IdDictionary dictionary = new IdDictionary();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Includes multi-byte UTF-8 and ids that are prefixes of each other
+            ids.add(i % 3 == 0 ? "enwiki:Caf\u00e9/" + i : i % 3 == 1 ? "p" + i : "p" + i + "0x");
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            expect(dictionary.intern(ids.get(i)) == i, "IdDictionary numbered " + ids.get(i) + " out of order");
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            expect(dictionary.intern(ids.get(i)) == i, "IdDictionary re-numbered " + ids.get(i));
+            expect(dictionary.lookup(ids.get(i)) == i, "IdDictionary.lookup missed " + ids.get(i));
+            expect(dictionary.get(i).equals(ids.get(i)), "IdDictionary.get(" + i + ") = " + dictionary.get(i));
+        }
+        expect(dictionary.lookup("never interned") == -1, "IdDictionary.lookup found an id never interned");
+        expect(dictionary.size() == ids.size(), "IdDictionary size " + dictionary.size());
+
+        IdDictionary.Frozen frozen = dictionary.freeze();
+        dictionary.intern("after freeze");
+        for (int i = 0; i < ids.size(); i++) {
+            expect(frozen.lookup(ids.get(i)) == i, "Frozen IdDictionary missed " + ids.get(i));
+        }
+        expect(frozen.lookup("after freeze") == -1, "Frozen IdDictionary sees an id interned after freeze");
+
+        // Merging: ids already known keep their numbers, new ones are appended
+        IdDictionary other = new IdDictionary();
+        other.intern("new id");
+        other.intern(ids.get(42));
+        int[] remap = dictionary.internAll(other);
+        expect(remap.length == 2 && remap[1] == 42, "IdDictionary.internAll renumbered a known id");
+        expect(remap[0] == ids.size() + 1 && dictionary.get(remap[0]).equals("new id"),
+                "IdDictionary.internAll didn't append a new id");
+    }
+
+    private void checkTrecFileParser(Path dir) throws IOException {
+        Path file = dir.resolve("fields.txt");
+        String text = "\n  q1 Q0\tp1  -12 0.5 m\r\n\r\n\t\nq2 Q0 p2 +7 -2.25 m\n"
+                + "q3 Q0 p3 1234567890 1e-3 m\nq4 Q0 p4 0 12345.678901 m";
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+
+        String[][] expectedFields = {
+                { "q1", "Q0", "p1", "-12", "0.5", "m" },
+                { "q2", "Q0", "p2", "+7", "-2.25", "m" },
+                { "q3", "Q0", "p3", "1234567890", "1e-3", "m" },
+                { "q4", "Q0", "p4", "0", "12345.678901", "m" } };
+        TrecFileParser parser = new TrecFileParser(file.toString());
+        int line = 0;
+        while (parser.nextLine()) {
+            if (line >= expectedFields.length) {
+                problems.add("TrecFileParser found more than " + expectedFields.length + " lines");
+                break;
+            }
+            String[] fields = expectedFields[line];
+            for (int f = 0; f < fields.length; f++) {
+                expect(parser.nextField() && parser.field().equals(fields[f]),
+                        "TrecFileParser line " + (line + 1) + " field " + (f + 1) + " isn't " + fields[f]);
+                if (f == 3) {
+                    expect(parser.parseInt() == Integer.parseInt(fields[f]), "TrecFileParser.parseInt " + fields[f]);
+                }
+                if (f == 4) {
+                    // The fast path divides in double and rounds once to float, like parsing as a double does
+                    expect(parser.parseFloat() == (float) Double.parseDouble(fields[f]),
+                            "TrecFileParser.parseFloat " + fields[f]);
+                }
+            }
+            expect(!parser.nextField(), "TrecFileParser line " + (line + 1) + " has extra fields");
+            line++;
+        }
+        expect(line == expectedFields.length, "TrecFileParser found " + line + " lines");
+    }
+
+    private void checkBinaryRoundTrip(Path dir) throws IOException {
+        // q1 has ranks 1, 2, 3, ... (stored implicitly), q2 has gaps (so ranks are stored explicitly)
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(SEED);
+        for (int rank = 1; rank <= 100; rank++) {
+            lines.add("enwiki:Query/One Q0 para" + random.nextInt(1000) + " " + rank + " "
+                    + (double) (100f - rank * 0.37f) + " lnc_ltn");
+        }
+        for (int rank = 1; rank <= 50; rank++) {
+            lines.add("enwiki:Query/Two Q0 para" + (rank * 7) + " " + (rank * 2) + " "
+                    + (double) (random.nextFloat() * -10f) + " lnc_ltn");
+        }
+        Path text = dir.resolve("run.txt");
+        Path binary = dir.resolve("run.bin");
+        Path back = dir.resolve("back.txt");
+        Files.write(text, lines, StandardCharsets.UTF_8);
+
+        BinaryRunFile.fromTrec(text.toString(), binary.toString());
+        expect(BinaryRunFile.isBinary(binary.toString()), "Converted run isn't recognized as binary");
+        expect(!BinaryRunFile.isBinary(text.toString()), "Text run is recognized as binary");
+        BinaryRunFile.open(binary.toString()).toTrec(back.toString());
+        List<String> roundTrip = Files.readAllLines(back, StandardCharsets.UTF_8);
+        expect(roundTrip.equals(lines), "Text -> binary -> text changed the run ("
+                + roundTrip.size() + " lines back of " + lines.size() + ")");
+
+        // Both files load into the same Run
+        EvaluationStore store = new EvaluationStore();
+        Run fromText = store.loadRun(text.toString());
+        Run fromBinary = store.loadRun(binary.toString());
+        expect(fromText.size() == fromBinary.size(), "Text and binary runs have different query counts");
+        for (int q = 0; q < Math.min(fromText.size(), fromBinary.size()); q++) {
+            int other = fromBinary.indexOf(fromText.getQuery(q));
+            expect(other >= 0
+                    && Arrays.equals(fromText.getParagraphs(q), fromBinary.getParagraphs(other))
+                    && Arrays.equals(fromText.getRanks(q), fromBinary.getRanks(other))
+                    && Arrays.equals(fromText.getScores(q), fromBinary.getScores(other)),
+                    "Text and binary runs differ on query " + fromText.getIds().get(fromText.getQuery(q)));
+        }
+    }
+}
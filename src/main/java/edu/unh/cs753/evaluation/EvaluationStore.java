@@ -0,0 +1,233 @@
+package edu.unh.cs753.evaluation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Loads qrels and run files into compact, int-based tables that share one IdDictionary, so a paragraph or query
+ * is the same number in every file loaded into the store.
+ *
+ * Files are read whole and parsed from the bytes: no line Strings, no split, and no boxed Integers. Every file is
+ * parsed into its own dictionary first and merged into the shared one at the end, so loadRuns can parse many run
+ * files in parallel.
+ */
+public class EvaluationStore {
+    private final IdDictionary ids = new IdDictionary();
+
+    public IdDictionary getIds() {
+        return ids;
+    }
+
+    /**
+     * Function: loadQrels
+     * Desc: Loads a qrels file ("query 0 paragraph grade" per line).
+     * @param path: Location of the qrels file.
+     */
+    public Qrels loadQrels(String path) throws IOException {
+        TrecFileParser parser = new TrecFileParser(path);
+        IdDictionary local = new IdDictionary();
+        Columns lines = new Columns();
+        while (parser.nextLine()) {
+            parser.requireField("query id");
+            int query = local.intern(parser.data, parser.start, parser.end - parser.start);
+            parser.requireField("iteration");
+            parser.requireField("paragraph id");
+            int paragraph = local.intern(parser.data, parser.start, parser.end - parser.start);
+            parser.requireField("grade");
+            lines.add(query, paragraph, parser.parseInt(), 0.0f);
+        }
+        lines.remap(ids.internAll(local));
+
+        Groups groups = lines.groupByQuery();
+        IntIntMap[] judgments = new IntIntMap[groups.queries.length];
+        for (int q = 0; q < judgments.length; q++) {
+            judgments[q] = new IntIntMap(groups.counts[q]);
+        }
+        for (int line = 0; line < lines.size; line++) {
+            judgments[groups.lineGroup[line]].put(lines.paragraphs[line], lines.values[line]);
+        }
+        return new Qrels(ids, groups.queries, groups.queryIndex, judgments);
+    }
+
+    /**
+     * Function: loadRun
+     * Desc: Loads a run file: TREC text ("query Q0 paragraph rank score name" per line) or a BinaryRunFile. Each
+     *       query's results are put in rank order (they already are in files written by RunFileWriter, in which
+     *       case the file order is kept).
+     * @param path: Location of the run file.
+     */
+    public Run loadRun(String path) throws IOException {
+        if (BinaryRunFile.isBinary(path)) {
+            return BinaryRunFile.open(path).toRun(ids, runName(path));
+        }
+        TrecFileParser parser = new TrecFileParser(path);
+        IdDictionary local = new IdDictionary();
+        Columns lines = new Columns();
+        while (parser.nextLine()) {
+            parser.requireField("query id");
+            int query = local.intern(parser.data, parser.start, parser.end - parser.start);
+            parser.requireField("Q0");
+            parser.requireField("paragraph id");
+            int paragraph = local.intern(parser.data, parser.start, parser.end - parser.start);
+            parser.requireField("rank");
+            int rank = parser.parseInt();
+            parser.requireField("score");
+            lines.add(query, paragraph, rank, parser.parseFloat());
+        }
+        lines.remap(ids.internAll(local));
+
+        Groups groups = lines.groupByQuery();
+        int nQueries = groups.queries.length;
+        int[][] paragraphs = new int[nQueries][];
+        int[][] ranks = new int[nQueries][];
+        float[][] scores = new float[nQueries][];
+        for (int q = 0; q < nQueries; q++) {
+            paragraphs[q] = new int[groups.counts[q]];
+            ranks[q] = new int[groups.counts[q]];
+            scores[q] = new float[groups.counts[q]];
+        }
+        int[] filled = new int[nQueries];
+        for (int line = 0; line < lines.size; line++) {
+            int q = groups.lineGroup[line];
+            int i = filled[q]++;
+            paragraphs[q][i] = lines.paragraphs[line];
+            ranks[q][i] = lines.values[line];
+            scores[q][i] = lines.scores[line];
+        }
+        for (int q = 0; q < nQueries; q++) {
+            sortByRank(paragraphs[q], ranks[q], scores[q]);
+        }
+
+        return new Run(runName(path), ids, groups.queries, groups.queryIndex, paragraphs, ranks, scores);
+    }
+
+    // The file name without its extension
+    private static String runName(String path) {
+        String name = Paths.get(path).getFileName().toString();
+        return name.lastIndexOf('.') >= 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+    }
+
+    /**
+     * Function: loadRuns
+     * Desc: Loads several run files in parallel.
+     * @return The runs, in the same order as the paths
+     */
+    public List<Run> loadRuns(List<String> paths) throws IOException {
+        try {
+            return paths.parallelStream()
+                        .map(path -> {
+                            try {
+                                return loadRun(path);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Stable sort of one query's results by rank; a no-op for results that are already in order
+    static void sortByRank(int[] paragraphs, int[] ranks, float[] scores) {
+        boolean sorted = true;
+        for (int i = 1; i < ranks.length && sorted; i++) {
+            sorted = ranks[i - 1] <= ranks[i];
+        }
+        if (sorted) {
+            return;
+        }
+
+        // Rank in the high half, original position in the low half: ties stay in file order
+        long[] order = new long[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            order[i] = ((long) ranks[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] oldParagraphs = paragraphs.clone();
+        float[] oldScores = scores.clone();
+        for (int i = 0; i < order.length; i++) {
+            int from = (int) order[i];
+            paragraphs[i] = oldParagraphs[from];
+            ranks[i] = (int) (order[i] >> 32);
+            scores[i] = oldScores[from];
+        }
+    }
+
+    /**
+     * The parsed lines of a file, column by column.
+     */
+    private static class Columns {
+        int size = 0;
+        int[] queries = new int[1024];
+        int[] paragraphs = new int[1024];
+        int[] values = new int[1024];
+        float[] scores = new float[1024];
+
+        void add(int query, int paragraph, int value, float score) {
+            if (size == queries.length) {
+                queries = Arrays.copyOf(queries, size * 2);
+                paragraphs = Arrays.copyOf(paragraphs, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            queries[size] = query;
+            paragraphs[size] = paragraph;
+            values[size] = value;
+            scores[size] = score;
+            size++;
+        }
+
+        // Renumbers the ids from a file's own dictionary to the shared one
+        void remap(int[] remap) {
+            for (int i = 0; i < size; i++) {
+                queries[i] = remap[queries[i]];
+                paragraphs[i] = remap[paragraphs[i]];
+            }
+        }
+
+        Groups groupByQuery() {
+            IntIntMap queryIndex = new IntIntMap();
+            int[] groupQueries = new int[64];
+            int[] counts = new int[64];
+            int[] lineGroup = new int[size];
+            int nGroups = 0;
+            for (int i = 0; i < size; i++) {
+                int group = queryIndex.get(queries[i], -1);
+                if (group < 0) {
+                    group = nGroups++;
+                    queryIndex.put(queries[i], group);
+                    if (group == groupQueries.length) {
+                        groupQueries = Arrays.copyOf(groupQueries, group * 2);
+                        counts = Arrays.copyOf(counts, group * 2);
+                    }
+                    groupQueries[group] = queries[i];
+                }
+                counts[group]++;
+                lineGroup[i] = group;
+            }
+            return new Groups(Arrays.copyOf(groupQueries, nGroups), queryIndex, counts, lineGroup);
+        }
+    }
+
+    /**
+     * Lines grouped by query: the queries in order of first appearance, and which group each line belongs to.
+     */
+    private static class Groups {
+        final int[] queries;
+        final IntIntMap queryIndex;
+        final int[] counts;
+        final int[] lineGroup;
+
+        Groups(int[] queries, IntIntMap queryIndex, int[] counts, int[] lineGroup) {
+            this.queries = queries;
+            this.queryIndex = queryIndex;
+            this.counts = counts;
+            this.lineGroup = lineGroup;
+        }
+    }
+}
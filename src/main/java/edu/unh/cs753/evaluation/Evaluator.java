@@ -0,0 +1,215 @@
+package edu.unh.cs753.evaluation;
+
+import edu.unh.cs753.utils.EvaluationUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes every evaluation measure of a run in one scan over each query's ranking, for any number of runs.
+ *
+ * The qrels are read once: each query's ideal DCG and number of relevant paragraphs are worked out up front and
+ * shared by every run. (run, query) pairs are spread over a fork-join pool, and each pair writes its own slots of
+ * the result arrays, so there's nothing to lock.
+ *
+ * As in EvaluationUtils, a paragraph counts as relevant if it's in the qrels, and measures are averaged over every
+ * query in the qrels (a query the run has no results for scores 0).
+ */
+public class Evaluator {
+    // Queries evaluated by one task before it stops splitting
+    private static final int MIN_TASK_SIZE = 256;
+
+    public enum Metric {
+        R_PREC("Rprec", false),
+        MAP("map", false),
+        NDCG("ndcg", true),
+        P("P", true),
+        RECALL("recall", true),
+        MRR("mrr", false);
+
+        private final String name;
+        private final boolean cutoff;
+
+        Metric(String name, boolean cutoff) {
+            this.name = name;
+            this.cutoff = cutoff;
+        }
+
+        /**
+         * @return Name of the metric, with its cutoff if it has one (e.g. "ndcg@20")
+         */
+        public String label(int k) {
+            return cutoff ? name + "@" + k : name;
+        }
+
+        /**
+         * Function: forName
+         * Desc: Finds a metric by its short name ("map", "Rprec", "ndcg", ...), ignoring case.
+         */
+        public static Metric forName(String name) {
+            for (Metric metric : values()) {
+                if (metric.name.equalsIgnoreCase(name) || metric.name().equalsIgnoreCase(name)) {
+                    return metric;
+                }
+            }
+            throw new IllegalArgumentException("Unknown metric: " + name);
+        }
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    // Grade returned for paragraphs without a judgment (no real grade is this low)
+    private static final int UNJUDGED = Integer.MIN_VALUE;
+
+    private final Qrels qrels;
+    private final int k;
+    private final double[] idealDcg;
+    private final int[] nRelevant;
+
+    /**
+     * @param qrels: Judgments to evaluate against.
+     * @param k: Cutoff of NDCG@k, P@k and recall@k.
+     */
+    public Evaluator(Qrels qrels, int k) {
+        this.qrels = qrels;
+        this.k = k;
+        this.idealDcg = new double[qrels.size()];
+        this.nRelevant = new int[qrels.size()];
+        for (int q = 0; q < qrels.size(); q++) {
+            int[] grades = qrels.getJudgments(q).values();
+            Arrays.sort(grades);
+            nRelevant[q] = grades.length;
+            for (int i = 0; i < k && i < grades.length; i++) {
+                idealDcg[q] += gain(grades[grades.length - 1 - i], i + 1);
+            }
+        }
+    }
+
+    public Qrels getQrels() {
+        return qrels;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    private static double gain(int grade, int rank) {
+        return (Math.pow(2.0, grade) - 1.0) / (Math.log(1.0 + rank) / Math.log(2.0));
+    }
+
+    /**
+     * Function: evaluateQuery
+     * Desc: Computes every metric for one query's ranking, in a single scan over it.
+     * @param q: Position of the query in the qrels.
+     * @param paragraphs: Paragraph numbers (in the qrels' IdDictionary), best first.
+     * @param length: Number of paragraphs of the ranking to use.
+     * @param values: Filled with one value per Metric, in Metric order, starting at offset.
+     */
+    public void evaluateQuery(int q, int[] paragraphs, int length, double[] values, int offset) {
+        IntIntMap judgments = qrels.getJudgments(q);
+        int r = nRelevant[q];
+
+        int hits = 0;
+        int hitsAtR = 0;
+        int hitsAtK = 0;
+        int firstHit = 0;
+        double precisionSum = 0.0;
+        double dcg = 0.0;
+        for (int i = 0; i < length; i++) {
+            // Any judged paragraph is relevant, whatever its grade (like containsKey in EvaluationUtils); negative
+            // grades are judged too, and add their (negative) gain to the DCG as in KotlinEvaluationUtils
+            int grade = judgments.get(paragraphs[i], UNJUDGED);
+            if (grade == UNJUDGED) {
+                continue;
+            }
+            hits++;
+            precisionSum += (double) hits / (i + 1);
+            if (firstHit == 0) {
+                firstHit = i + 1;
+            }
+            if (i < r) {
+                hitsAtR++;
+            }
+            if (i < k) {
+                hitsAtK++;
+                dcg += gain(grade, i + 1);
+            }
+        }
+
+        values[offset + Metric.R_PREC.ordinal()] = (double) hitsAtR / r;
+        values[offset + Metric.MAP.ordinal()] = precisionSum / r;
+        values[offset + Metric.NDCG.ordinal()] = dcg / idealDcg[q];
+        values[offset + Metric.P.ordinal()] = (double) hitsAtK / k;
+        values[offset + Metric.RECALL.ordinal()] = (double) hitsAtK / r;
+        values[offset + Metric.MRR.ordinal()] = firstHit == 0 ? 0.0 : 1.0 / firstHit;
+    }
+
+    /**
+     * Function: evaluate
+     * Desc: Evaluates runs on the common fork-join pool.
+     */
+    public EvaluationResults evaluate(List<Run> runs) {
+        return evaluate(runs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Function: evaluate
+     * Desc: Evaluates runs, spreading (run, query) pairs over a fork-join pool.
+     * @param runs: Runs loaded into the same EvaluationStore as the qrels.
+     * @param pool: Pool to run on.
+     * @return Per-query and mean values of every metric for every run
+     */
+    public EvaluationResults evaluate(List<Run> runs, ForkJoinPool pool) {
+        for (Run run : runs) {
+            EvaluationUtils.checkSameStore(qrels, run);
+        }
+        double[][] values = new double[runs.size()][qrels.size() * METRICS.length];
+        pool.invoke(new EvaluateTask(runs, values, 0, runs.size() * qrels.size()));
+        return new EvaluationResults(this, runNames(runs), values);
+    }
+
+    private static String[] runNames(List<Run> runs) {
+        String[] names = new String[runs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = runs.get(i).getName();
+        }
+        return names;
+    }
+
+    /**
+     * Evaluates a range of (run, query) pairs, numbered run * number of queries + query.
+     */
+    @SuppressWarnings("serial")
+    private class EvaluateTask extends RecursiveAction {
+        private final List<Run> runs;
+        private final double[][] values;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(List<Run> runs, double[][] values, int from, int to) {
+            this.runs = runs;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > MIN_TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateTask(runs, values, from, middle), new EvaluateTask(runs, values, middle, to));
+                return;
+            }
+            int nQueries = qrels.size();
+            for (int pair = from; pair < to; pair++) {
+                Run run = runs.get(pair / nQueries);
+                int q = pair % nQueries;
+                int index = run.indexOf(qrels.getQuery(q));
+                int[] paragraphs = index < 0 ? new int[0] : run.getParagraphs(index);
+                evaluateQuery(q, paragraphs, paragraphs.length, values[pair / nQueries], q * METRICS.length);
+            }
+        }
+    }
+}
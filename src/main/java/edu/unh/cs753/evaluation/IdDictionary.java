@@ -0,0 +1,238 @@
+package edu.unh.cs753.evaluation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps query and paragraph ids to dense ints (0, 1, 2, ...), so qrels and runs can be stored as int arrays.
+ *
+ * Ids are kept as UTF-8 bytes in one shared pool and looked up straight from the bytes of a file, so interning
+ * a token doesn't create a String. Strings are only made (and then cached) when an id is asked for by number.
+ *
+ * Methods are synchronized. To load files in parallel, parse each one into its own dictionary and merge it into
+ * the shared one with internAll (one lock per file instead of one per token). Threads that only look ids up can
+ * use a frozen copy (see freeze), which takes no lock at all.
+ */
+public class IdDictionary {
+    private static final int EMPTY = -1;
+
+    private byte[] pool = new byte[1 << 16];
+    private int poolSize = 0;
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] hashes = new int[1024];
+    private String[] strings = new String[1024];
+    private int size = 0;
+
+    private int[] table = new int[2048];
+    private int mask = table.length - 1;
+
+    public IdDictionary() {
+        Arrays.fill(table, EMPTY);
+    }
+
+    private static int hash(byte[] bytes, int off, int len) {
+        int h = 0x811C9DC5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Function: intern
+     * Desc: Returns the number of an id given as UTF-8 bytes, adding the id if it's new.
+     * @param bytes: Buffer holding the id.
+     * @param off: Start of the id in the buffer.
+     * @param len: Length of the id in bytes.
+     */
+    public synchronized int intern(byte[] bytes, int off, int len) {
+        return intern(bytes, off, len, hash(bytes, off, len));
+    }
+
+    public int intern(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Function: lookup
+     * @return The number of an id, or -1 if it was never interned
+     */
+    public synchronized int lookup(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        int i = find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+        return table[i];
+    }
+
+    /**
+     * Function: freeze
+     * Desc: Takes a read-only copy of the dictionary's lookup table. Ids interned afterwards aren't in the copy.
+     * @return Frozen copy, safe to look ids up in from any number of threads without locking
+     */
+    public synchronized Frozen freeze() {
+        return new Frozen(Arrays.copyOf(pool, poolSize), Arrays.copyOf(offsets, size), Arrays.copyOf(lengths, size),
+                Arrays.copyOf(hashes, size), table.clone());
+    }
+
+    /**
+     * Function: get
+     * @return The id with the given number
+     */
+    public synchronized String get(int number) {
+        if (number < 0 || number >= size) {
+            throw new IndexOutOfBoundsException("No id numbered " + number);
+        }
+        String id = strings[number];
+        if (id == null) {
+            id = new String(pool, offsets[number], lengths[number], StandardCharsets.UTF_8);
+            strings[number] = id;
+        }
+        return id;
+    }
+
+    /**
+     * @return The UTF-8 bytes of the id with the given number
+     */
+    synchronized byte[] getBytes(int number) {
+        return Arrays.copyOfRange(pool, offsets[number], offsets[number] + lengths[number]);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Function: internAll
+     * Desc: Adds every id of another dictionary to this one.
+     * @return For each number in the other dictionary, the number of the same id in this one
+     */
+    public int[] internAll(IdDictionary other) {
+        // Lock in a fixed order so two dictionaries merging into each other can't deadlock
+        IdDictionary first = System.identityHashCode(this) <= System.identityHashCode(other) ? this : other;
+        IdDictionary second = first == this ? other : this;
+        synchronized (first) {
+            synchronized (second) {
+                int[] remap = new int[other.size];
+                for (int n = 0; n < other.size; n++) {
+                    remap[n] = intern(other.pool, other.offsets[n], other.lengths[n], other.hashes[n]);
+                }
+                return remap;
+            }
+        }
+    }
+
+    private int intern(byte[] bytes, int off, int len, int h) {
+        int i = find(bytes, off, len, h);
+        if (table[i] != EMPTY) {
+            return table[i];
+        }
+
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+        if (poolSize + len > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + len));
+        }
+        System.arraycopy(bytes, off, pool, poolSize, len);
+        offsets[size] = poolSize;
+        lengths[size] = len;
+        hashes[size] = h;
+        poolSize += len;
+        table[i] = size;
+
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    // Slot of an id in the table: the one holding it, or the empty one where it would go
+    private int find(byte[] bytes, int off, int len, int h) {
+        int i = h & mask;
+        while (table[i] != EMPTY && !matches(table[i], bytes, off, len, h)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private boolean matches(int number, byte[] bytes, int off, int len, int h) {
+        if (hashes[number] != h || lengths[number] != len) {
+            return false;
+        }
+        int start = offsets[number];
+        for (int i = 0; i < len; i++) {
+            if (pool[start + i] != bytes[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, EMPTY);
+        mask = table.length - 1;
+        for (int n = 0; n < size; n++) {
+            int i = hashes[n] & mask;
+            while (table[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            table[i] = n;
+        }
+    }
+
+    /**
+     * Read-only copy of a dictionary's ids and table (see freeze). All fields are final and never written after
+     * construction, so lookups need no synchronization.
+     */
+    public static class Frozen {
+        private final byte[] pool;
+        private final int[] offsets;
+        private final int[] lengths;
+        private final int[] hashes;
+        private final int[] table;
+        private final int mask;
+
+        private Frozen(byte[] pool, int[] offsets, int[] lengths, int[] hashes, int[] table) {
+            this.pool = pool;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.hashes = hashes;
+            this.table = table;
+            this.mask = table.length - 1;
+        }
+
+        /**
+         * Function: lookup
+         * @return The number of an id, or -1 if it wasn't interned when the dictionary was frozen
+         */
+        public int lookup(String id) {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            int h = hash(bytes, 0, bytes.length);
+            for (int i = h & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+                if (matches(table[i], bytes, h)) {
+                    return table[i];
+                }
+            }
+            return EMPTY;
+        }
+
+        private boolean matches(int number, byte[] bytes, int h) {
+            if (hashes[number] != h || lengths[number] != bytes.length) {
+                return false;
+            }
+            int start = offsets[number];
+            for (int i = 0; i < bytes.length; i++) {
+                if (pool[start + i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package edu.unh.cs753.evaluation;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing (linear probing) map from non-negative int keys to int values, stored in two primitive arrays.
+ * Used for qrels tables (paragraph id -> grade) and query lookups, where a HashMap would box every entry.
+ *
+ * Not thread-safe for writes; once built, any number of threads can read it.
+ */
+public class IntIntMap {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    public IntIntMap() {
+        this(8);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Function: put
+     * Desc: Sets the value of a key, replacing any earlier value.
+     * @param key: Non-negative key.
+     */
+    public void put(int key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Keys must be non-negative: " + key);
+        }
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Function: get
+     * @return The value of a key, or defaultValue if the key isn't in the map
+     */
+    public int get(int key, int defaultValue) {
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        int i = slot(key, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The keys, in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != EMPTY) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The values, in the same order as keys()
+     */
+    public int[] values() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                result[n++] = values[i];
+            }
+        }
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = slot(oldKeys[j], mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.unh.cs753.evaluation;
+
+/**
+ * Relevance judgments: for each query, a map from paragraph number to grade. Query and paragraph ids are numbered
+ * by the store's IdDictionary, so qrels can only be compared against runs loaded into the same store.
+ */
+public class Qrels {
+    private final IdDictionary ids;
+    private final int[] queries;
+    private final IntIntMap queryIndex;
+    private final IntIntMap[] judgments;
+
+    Qrels(IdDictionary ids, int[] queries, IntIntMap queryIndex, IntIntMap[] judgments) {
+        this.ids = ids;
+        this.queries = queries;
+        this.queryIndex = queryIndex;
+        this.judgments = judgments;
+    }
+
+    public IdDictionary getIds() {
+        return ids;
+    }
+
+    /**
+     * @return Number of judged queries
+     */
+    public int size() {
+        return queries.length;
+    }
+
+    /**
+     * @return Number (in getIds()) of the i-th query, in the order queries first appear in the file
+     */
+    public int getQuery(int i) {
+        return queries[i];
+    }
+
+    /**
+     * @return Position of a query (by number) in this qrels, or -1 if it isn't judged
+     */
+    public int indexOf(int query) {
+        return queryIndex.get(query, -1);
+    }
+
+    /**
+     * @return The i-th query's judgments: paragraph number to grade
+     */
+    public IntIntMap getJudgments(int i) {
+        return judgments[i];
+    }
+}
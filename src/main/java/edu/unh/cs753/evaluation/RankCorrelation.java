@@ -0,0 +1,236 @@
+package edu.unh.cs753.evaluation;
+
+import edu.unh.cs753.utils.EvaluationUtils;
+
+import java.util.Arrays;
+
+/**
+ * Correlations between two rankings of the same query: Spearman (as in EvaluationUtils.calculateSpearman),
+ * Kendall's tau-b and rank-biased overlap. Rankings are primitive arrays of paragraph numbers (from the same
+ * IdDictionary, or Lucene doc ids) in rank order, with the rank of each entry.
+ *
+ * Both rankings are sorted by paragraph once and merged, so comparing two rankings of length n is O(n log n) for
+ * all three measures together.
+ */
+public final class RankCorrelation {
+    public static final int SPEARMAN = 0;
+    public static final int KENDALL_TAU = 1;
+    public static final int RBO = 2;
+
+    private RankCorrelation() {
+    }
+
+    /**
+     * Function: spearman
+     * Desc: Spearman correlation of the second ranking with the first. Every paragraph of the first ranking is
+     *       counted; one missing from the second gets the largest squared rank difference of the query (the same
+     *       rule KotlinEvaluationUtils.getSpearmanResults has always used).
+     */
+    public static double spearman(int[] paragraphs1, int[] ranks1, int[] paragraphs2, int[] ranks2) {
+        return compare(new SortedRanking(paragraphs1, ranks1), new SortedRanking(paragraphs2, ranks2), 0.9)[SPEARMAN];
+    }
+
+    /**
+     * Function: kendallTau
+     * Desc: Kendall's tau-b over the paragraphs both rankings retrieved (NaN if there are fewer than two).
+     */
+    public static double kendallTau(int[] paragraphs1, int[] ranks1, int[] paragraphs2, int[] ranks2) {
+        return compare(new SortedRanking(paragraphs1, ranks1), new SortedRanking(paragraphs2, ranks2), 0.9)
+                [KENDALL_TAU];
+    }
+
+    /**
+     * Function: rbo
+     * Desc: Extrapolated rank-biased overlap (Webber et al. 2010) of two rankings, down to the depth of the shorter.
+     * @param p: Persistence: how much weight deeper ranks get (0.9 puts ~86% of the weight on the first 10).
+     */
+    public static double rbo(int[] ranking1, int[] ranking2, double p) {
+        return compare(new SortedRanking(ranking1, null), new SortedRanking(ranking2, null), p)[RBO];
+    }
+
+    /**
+     * Function: compare
+     * Desc: Computes all three measures in one merge of the two rankings.
+     * @return Values indexed by SPEARMAN, KENDALL_TAU and RBO
+     */
+    static double[] compare(SortedRanking first, SortedRanking second, double p) {
+        int n = first.size();
+        int depth = Math.min(n, second.size());
+        int[] spearman1 = new int[n];
+        int[] spearman2 = new int[n];
+        long[] common = new long[Math.min(n, second.size())];
+        int nCommon = 0;
+        int[] overlapAt = new int[depth + 1];
+        double maxDiff = 0.0;
+
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            int paragraph = first.paragraph(i);
+            while (j < second.size() && second.paragraph(j) < paragraph) {
+                j++;
+            }
+            if (j < second.size() && second.paragraph(j) == paragraph) {
+                int rank1 = first.rank(i);
+                int rank2 = second.rank(j);
+                spearman1[i] = rank1;
+                spearman2[i] = rank2;
+                maxDiff = Math.max(maxDiff, (double) (rank1 - rank2) * (rank1 - rank2));
+                if (nCommon < common.length) {
+                    common[nCommon++] = ((long) rank1 << 32) | (rank2 & 0xFFFFFFFFL);
+                }
+                // A paragraph is in the overlap from the depth at which both rankings have reached it
+                int reached = Math.max(first.position(i), second.position(j));
+                if (reached < depth) {
+                    overlapAt[reached + 1]++;
+                }
+            } else {
+                spearman1[i] = -1;
+                spearman2[i] = -1;
+            }
+        }
+
+        double[] values = new double[3];
+        values[SPEARMAN] = EvaluationUtils.calculateSpearman(spearman1, spearman2, n, maxDiff);
+        values[KENDALL_TAU] = kendallTauB(common, nCommon);
+        values[RBO] = rbo(overlapAt, depth, p);
+        return values;
+    }
+
+    private static double rbo(int[] overlapAt, int depth, double p) {
+        if (depth == 0) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        double weight = 1.0;
+        int overlap = 0;
+        for (int d = 1; d <= depth; d++) {
+            overlap += overlapAt[d];
+            weight *= p;
+            sum += (double) overlap / d * weight;
+        }
+        return (double) overlap / depth * weight + (1.0 - p) / p * sum;
+    }
+
+    /**
+     * Function: kendallTauB
+     * Desc: Knight's O(n log n) tau-b: sort the pairs by the first rank, then count the swaps a merge sort needs to
+     *       put the second ranks in order (each swap is a discordant pair). Ties are handled as in tau-b.
+     * @param pairs: (rank1 << 32 | rank2) for each paragraph; sorted in place. Ranks must be non-negative.
+     * @param n: Number of pairs.
+     */
+    static double kendallTauB(long[] pairs, int n) {
+        if (n < 2) {
+            return Double.NaN;
+        }
+        Arrays.sort(pairs, 0, n);
+
+        long totalPairs = (long) n * (n - 1) / 2;
+        long tiedFirst = 0;
+        long tiedBoth = 0;
+        int firstRun = 1;
+        int bothRun = 1;
+        int[] second = new int[n];
+        second[0] = (int) pairs[0];
+        for (int i = 1; i < n; i++) {
+            second[i] = (int) pairs[i];
+            if ((pairs[i] >>> 32) == (pairs[i - 1] >>> 32)) {
+                firstRun++;
+            } else {
+                tiedFirst += (long) firstRun * (firstRun - 1) / 2;
+                firstRun = 1;
+            }
+            if (pairs[i] == pairs[i - 1]) {
+                bothRun++;
+            } else {
+                tiedBoth += (long) bothRun * (bothRun - 1) / 2;
+                bothRun = 1;
+            }
+        }
+        tiedFirst += (long) firstRun * (firstRun - 1) / 2;
+        tiedBoth += (long) bothRun * (bothRun - 1) / 2;
+
+        long swaps = countSwaps(second, new int[n], 0, n);
+
+        long tiedSecond = 0;
+        int secondRun = 1;
+        for (int i = 1; i < n; i++) {
+            if (second[i] == second[i - 1]) {
+                secondRun++;
+            } else {
+                tiedSecond += (long) secondRun * (secondRun - 1) / 2;
+                secondRun = 1;
+            }
+        }
+        tiedSecond += (long) secondRun * (secondRun - 1) / 2;
+
+        double numerator = totalPairs - tiedFirst - tiedSecond + tiedBoth - 2.0 * swaps;
+        return numerator / Math.sqrt((double) (totalPairs - tiedFirst) * (totalPairs - tiedSecond));
+    }
+
+    // Merge sort of values[from, to), returning the number of inversions (pairs out of order)
+    private static long countSwaps(int[] values, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return 0;
+        }
+        int middle = (from + to) >>> 1;
+        long swaps = countSwaps(values, buffer, from, middle) + countSwaps(values, buffer, middle, to);
+        int i = from;
+        int j = middle;
+        int k = from;
+        while (i < middle && j < to) {
+            if (values[j] < values[i]) {
+                swaps += middle - i;
+                buffer[k++] = values[j++];
+            } else {
+                buffer[k++] = values[i++];
+            }
+        }
+        while (i < middle) {
+            buffer[k++] = values[i++];
+        }
+        while (j < to) {
+            buffer[k++] = values[j++];
+        }
+        System.arraycopy(buffer, from, values, from, to - from);
+        return swaps;
+    }
+
+    /**
+     * A ranking sorted by paragraph number, remembering each entry's position in the ranking and its rank.
+     */
+    static final class SortedRanking {
+        static final SortedRanking EMPTY = new SortedRanking(new int[0], new int[0]);
+
+        private final long[] entries;
+        private final int[] ranks;
+
+        /**
+         * @param paragraphs: Paragraph numbers (non-negative) in rank order.
+         * @param ranks: Rank of each entry, or null to use positions + 1.
+         */
+        SortedRanking(int[] paragraphs, int[] ranks) {
+            entries = new long[paragraphs.length];
+            for (int i = 0; i < paragraphs.length; i++) {
+                entries[i] = ((long) paragraphs[i] << 32) | i;
+            }
+            Arrays.sort(entries);
+            this.ranks = ranks;
+        }
+
+        int size() {
+            return entries.length;
+        }
+
+        int paragraph(int i) {
+            return (int) (entries[i] >>> 32);
+        }
+
+        int position(int i) {
+            return (int) entries[i];
+        }
+
+        int rank(int i) {
+            return ranks == null ? position(i) + 1 : ranks[position(i)];
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package edu.unh.cs753.evaluation;
+
+/**
+ * A run file: for each query, the retrieved paragraph numbers in rank order, with the rank and score each line
+ * gave them. Query and paragraph ids are numbered by the store's IdDictionary.
+ */
+public class Run {
+    private final String name;
+    private final IdDictionary ids;
+    private final int[] queries;
+    private final IntIntMap queryIndex;
+    private final int[][] paragraphs;
+    private final int[][] ranks;
+    private final float[][] scores;
+
+    Run(String name, IdDictionary ids, int[] queries, IntIntMap queryIndex, int[][] paragraphs, int[][] ranks,
+        float[][] scores) {
+        this.name = name;
+        this.ids = ids;
+        this.queries = queries;
+        this.queryIndex = queryIndex;
+        this.paragraphs = paragraphs;
+        this.ranks = ranks;
+        this.scores = scores;
+    }
+
+    /**
+     * @return The run's file name, without its extension (e.g. "page_lnc_ltn")
+     */
+    public String getName() {
+        return name;
+    }
+
+    public IdDictionary getIds() {
+        return ids;
+    }
+
+    /**
+     * @return Number of queries in the run
+     */
+    public int size() {
+        return queries.length;
+    }
+
+    /**
+     * @return Number (in getIds()) of the i-th query, in the order queries first appear in the file
+     */
+    public int getQuery(int i) {
+        return queries[i];
+    }
+
+    /**
+     * @return Position of a query (by number) in this run, or -1 if the run has no results for it
+     */
+    public int indexOf(int query) {
+        return queryIndex.get(query, -1);
+    }
+
+    /**
+     * @return The i-th query's paragraph numbers, best first
+     */
+    public int[] getParagraphs(int i) {
+        return paragraphs[i];
+    }
+
+    /**
+     * @return The ranks written in the run file, in the same order as getParagraphs(i)
+     */
+    public int[] getRanks(int i) {
+        return ranks[i];
+    }
+
+    /**
+     * @return The scores written in the run file, in the same order as getParagraphs(i)
+     */
+    public float[] getScores(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Function: getRankMap
+     * Desc: Maps each paragraph of the i-th query to its rank (the last one, if a paragraph is listed twice).
+     */
+    public IntIntMap getRankMap(int i) {
+        IntIntMap rankMap = new IntIntMap(paragraphs[i].length);
+        for (int j = 0; j < paragraphs[i].length; j++) {
+            rankMap.put(paragraphs[i][j], ranks[i][j]);
+        }
+        return rankMap;
+    }
+}
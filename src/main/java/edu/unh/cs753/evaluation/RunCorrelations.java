@@ -0,0 +1,203 @@
+package edu.unh.cs753.evaluation;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rank correlations (Spearman, Kendall's tau-b and RBO) between every pair of runs, averaged over queries.
+ *
+ * Entry [i][j] compares run j against run i as the baseline: it's averaged over the queries run i has results for
+ * (a query run j has no results for counts as an empty ranking), skipping values that aren't finite. That's the
+ * same averaging KotlinEvaluationUtils.getSpearmanResults does against the standard run. Spearman is asymmetric
+ * (it only looks at the baseline's paragraphs); Kendall's tau and RBO are symmetric whenever the runs have the same
+ * queries.
+ *
+ * Every ranking is sorted by paragraph once up front, then the ordered pairs of runs are spread over a fork-join
+ * pool, one pair per task.
+ */
+public class RunCorrelations {
+    public enum Measure {
+        SPEARMAN(RankCorrelation.SPEARMAN),
+        KENDALL_TAU(RankCorrelation.KENDALL_TAU),
+        RBO(RankCorrelation.RBO);
+
+        private final int index;
+
+        Measure(int index) {
+            this.index = index;
+        }
+    }
+
+    private final String[] runNames;
+    private final double[][][] values;
+
+    private RunCorrelations(String[] runNames, double[][][] values) {
+        this.runNames = runNames;
+        this.values = values;
+    }
+
+    /**
+     * Function: compute
+     * Desc: Correlates every run with every other run.
+     * @param runs: Runs loaded into the same EvaluationStore.
+     * @param p: RBO persistence (e.g. 0.9).
+     * @param pool: Pool to run on.
+     */
+    public static RunCorrelations compute(List<Run> runs, double p, ForkJoinPool pool) {
+        for (Run run : runs) {
+            if (run.getIds() != runs.get(0).getIds()) {
+                throw new IllegalArgumentException("Run " + run.getName() + " was loaded into a different store");
+            }
+        }
+
+        int nRuns = runs.size();
+        String[] runNames = new String[nRuns];
+        RankCorrelation.SortedRanking[][] sorted = new RankCorrelation.SortedRanking[nRuns][];
+        for (int r = 0; r < nRuns; r++) {
+            runNames[r] = runs.get(r).getName();
+            sorted[r] = new RankCorrelation.SortedRanking[runs.get(r).size()];
+        }
+        pool.invoke(new SortTask(runs, sorted, 0, nRuns));
+
+        double[][][] values = new double[Measure.values().length][nRuns][nRuns];
+        pool.invoke(new PairTask(runs, sorted, p, values, 0, nRuns * nRuns));
+        return new RunCorrelations(runNames, values);
+    }
+
+    public int getRunCount() {
+        return runNames.length;
+    }
+
+    public String getRunName(int run) {
+        return runNames[run];
+    }
+
+    /**
+     * @return Mean correlation of run other against run baseline
+     */
+    public double get(Measure measure, int baseline, int other) {
+        return values[measure.index][baseline][other];
+    }
+
+    /**
+     * Function: format
+     * Desc: The matrix of one measure, with a row per baseline run and a column (numbered like the rows) per run.
+     */
+    public String format(Measure measure) {
+        int nameWidth = 8;
+        for (String name : runNames) {
+            nameWidth = Math.max(nameWidth, name.length());
+        }
+        StringBuilder sb = new StringBuilder(String.format("%-" + (nameWidth + 5) + "s", measure.name().toLowerCase()));
+        for (int j = 0; j < runNames.length; j++) {
+            sb.append(String.format(" %7d", j));
+        }
+        sb.append(System.lineSeparator());
+        for (int i = 0; i < runNames.length; i++) {
+            sb.append(String.format("%3d  %-" + nameWidth + "s", i, runNames[i]));
+            for (int j = 0; j < runNames.length; j++) {
+                sb.append(String.format(" %7.4f", values[measure.index][i][j]));
+            }
+            sb.append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    // One pair of runs: all three measures, averaged over the baseline's queries
+    private static void correlate(List<Run> runs, RankCorrelation.SortedRanking[][] sorted, double p,
+                                  double[][][] values, int baseline, int other) {
+        Run baselineRun = runs.get(baseline);
+        Run otherRun = runs.get(other);
+        double[] sums = new double[values.length];
+        int[] counts = new int[values.length];
+        for (int q = 0; q < baselineRun.size(); q++) {
+            if (sorted[baseline][q].size() == 0) {
+                continue;
+            }
+            int index = otherRun.indexOf(baselineRun.getQuery(q));
+            RankCorrelation.SortedRanking otherRanking = index < 0
+                    ? RankCorrelation.SortedRanking.EMPTY
+                    : sorted[other][index];
+            double[] correlations = RankCorrelation.compare(sorted[baseline][q], otherRanking, p);
+            for (int m = 0; m < correlations.length; m++) {
+                if (Double.isFinite(correlations[m])) {
+                    sums[m] += correlations[m];
+                    counts[m]++;
+                }
+            }
+        }
+        for (int m = 0; m < values.length; m++) {
+            values[m][baseline][other] = counts[m] == 0 ? Double.NaN : sums[m] / counts[m];
+        }
+    }
+
+    /**
+     * Sorts the rankings of a range of runs by paragraph.
+     */
+    @SuppressWarnings("serial")
+    private static class SortTask extends RecursiveAction {
+        private final List<Run> runs;
+        private final RankCorrelation.SortedRanking[][] sorted;
+        private final int from;
+        private final int to;
+
+        SortTask(List<Run> runs, RankCorrelation.SortedRanking[][] sorted, int from, int to) {
+            this.runs = runs;
+            this.sorted = sorted;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SortTask(runs, sorted, from, middle), new SortTask(runs, sorted, middle, to));
+                return;
+            }
+            for (int r = from; r < to; r++) {
+                Run run = runs.get(r);
+                for (int q = 0; q < run.size(); q++) {
+                    sorted[r][q] = new RankCorrelation.SortedRanking(run.getParagraphs(q), run.getRanks(q));
+                }
+            }
+        }
+    }
+
+    /**
+     * Correlates a range of ordered run pairs, numbered baseline * number of runs + other.
+     */
+    @SuppressWarnings("serial")
+    private static class PairTask extends RecursiveAction {
+        private final List<Run> runs;
+        private final RankCorrelation.SortedRanking[][] sorted;
+        private final double p;
+        private final double[][][] values;
+        private final int from;
+        private final int to;
+
+        PairTask(List<Run> runs, RankCorrelation.SortedRanking[][] sorted, double p, double[][][] values,
+                 int from, int to) {
+            this.runs = runs;
+            this.sorted = sorted;
+            this.p = p;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PairTask(runs, sorted, p, values, from, middle),
+                        new PairTask(runs, sorted, p, values, middle, to));
+                return;
+            }
+            for (int pair = from; pair < to; pair++) {
+                correlate(runs, sorted, p, values, pair / runs.size(), pair % runs.size());
+            }
+        }
+    }
+}
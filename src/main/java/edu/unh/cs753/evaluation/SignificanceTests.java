@@ -0,0 +1,314 @@
+package edu.unh.cs753.evaluation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Paired significance tests between runs, on their per-query scores for one metric: a randomization (sign-flip)
+ * test, a bootstrap confidence interval of the mean difference, and a paired t-test.
+ *
+ * Resampling is split into fixed chunks of trials, and every chunk gets its own SplittableRandom, split off a root
+ * generator in a fixed order before anything runs. The chunks are then spread over a fork-join pool, so results
+ * only depend on the seed, never on the number of threads.
+ */
+public class SignificanceTests {
+    private static final int TRIALS_PER_CHUNK = 1000;
+
+    private final int trials;
+    private final long seed;
+    private final double alpha;
+
+    /**
+     * @param trials: Number of randomization and bootstrap trials per pair of runs (e.g. 10000).
+     * @param seed: Seed of the random generators.
+     * @param alpha: 1 - confidence level of the bootstrap interval (0.05 for a 95% interval).
+     */
+    public SignificanceTests(int trials, long seed, double alpha) {
+        this.trials = trials;
+        this.seed = seed;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Outcome of comparing run b against run a (differences are b - a).
+     */
+    public static class Comparison {
+        public final String runA;
+        public final String runB;
+        public final double meanDifference;
+        public final double randomizationP;
+        public final double bootstrapLow;
+        public final double bootstrapHigh;
+        public final double t;
+        public final double tTestP;
+
+        Comparison(String runA, String runB, double meanDifference, double randomizationP, double bootstrapLow,
+                   double bootstrapHigh, double t, double tTestP) {
+            this.runA = runA;
+            this.runB = runB;
+            this.meanDifference = meanDifference;
+            this.randomizationP = randomizationP;
+            this.bootstrapLow = bootstrapLow;
+            this.bootstrapHigh = bootstrapHigh;
+            this.t = t;
+            this.tTestP = tTestP;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s -> %s: diff %.4f, randomization p %.4f, bootstrap [%.4f, %.4f], t %.3f (p %.4f)",
+                    runA, runB, meanDifference, randomizationP, bootstrapLow, bootstrapHigh, t, tTestP);
+        }
+    }
+
+    /**
+     * Function: compare
+     * Desc: Tests one pair of runs.
+     * @param a: Per-query scores of the first run.
+     * @param b: Per-query scores of the second run, for the same queries in the same order.
+     */
+    public Comparison compare(String runA, double[] a, String runB, double[] b, ForkJoinPool pool) {
+        List<Comparison> comparisons = compareAll(new String[] { runA, runB }, new double[][] { a, b }, pool);
+        return comparisons.get(0);
+    }
+
+    /**
+     * Function: compareAll
+     * Desc: Tests every pair of runs of an evaluation on one metric.
+     * @return One comparison per pair (i, j) with i < j, in that order
+     */
+    public List<Comparison> compareAll(EvaluationResults results, Evaluator.Metric metric, ForkJoinPool pool) {
+        String[] names = new String[results.getRunCount()];
+        double[][] scores = new double[names.length][];
+        for (int run = 0; run < names.length; run++) {
+            names[run] = results.getRunName(run);
+            scores[run] = results.getValues(run, metric);
+        }
+        return compareAll(names, scores, pool);
+    }
+
+    private List<Comparison> compareAll(String[] names, double[][] scores, ForkJoinPool pool) {
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++) {
+                if (scores[i].length != scores[j].length) {
+                    throw new IllegalArgumentException(names[i] + " and " + names[j] + " have different queries");
+                }
+                pairs.add(new int[] { i, j });
+            }
+        }
+
+        int nChunks = (trials + TRIALS_PER_CHUNK - 1) / TRIALS_PER_CHUNK;
+        double[][] differences = new double[pairs.size()][];
+        SplittableRandom[][] randoms = new SplittableRandom[pairs.size()][2 * nChunks];
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int p = 0; p < pairs.size(); p++) {
+            double[] a = scores[pairs.get(p)[0]];
+            double[] b = scores[pairs.get(p)[1]];
+            differences[p] = new double[a.length];
+            for (int q = 0; q < a.length; q++) {
+                differences[p][q] = b[q] - a[q];
+            }
+            for (int c = 0; c < randoms[p].length; c++) {
+                randoms[p][c] = root.split();
+            }
+        }
+
+        long[][] extremeCounts = new long[pairs.size()][nChunks];
+        double[][] bootstrapMeans = new double[pairs.size()][trials];
+        pool.invoke(new ResampleTask(differences, randoms, extremeCounts, bootstrapMeans, 0, pairs.size() * nChunks));
+
+        List<Comparison> comparisons = new ArrayList<>(pairs.size());
+        for (int p = 0; p < pairs.size(); p++) {
+            double[] d = differences[p];
+            long extreme = 0;
+            for (long count : extremeCounts[p]) {
+                extreme += count;
+            }
+            double[] means = bootstrapMeans[p];
+            Arrays.sort(means);
+            int low = (int) Math.floor(alpha / 2 * trials);
+            int high = Math.max(low, (int) Math.ceil((1 - alpha / 2) * trials) - 1);
+            double t = tStatistic(d);
+            comparisons.add(new Comparison(names[pairs.get(p)[0]], names[pairs.get(p)[1]], mean(d),
+                    // Counting the observed assignment as one of the trials keeps p above 0
+                    (extreme + 1.0) / (trials + 1.0),
+                    trials == 0 ? Double.NaN : means[Math.min(low, trials - 1)],
+                    trials == 0 ? Double.NaN : means[Math.min(high, trials - 1)],
+                    t, tTestP(t, d.length - 1)));
+        }
+        return comparisons;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double tStatistic(double[] d) {
+        double mean = mean(d);
+        double squares = 0.0;
+        for (double value : d) {
+            squares += (value - mean) * (value - mean);
+        }
+        double standardError = Math.sqrt(squares / (d.length - 1) / d.length);
+        if (standardError == 0.0) {
+            return mean == 0.0 ? 0.0 : Math.copySign(Double.POSITIVE_INFINITY, mean);
+        }
+        return mean / standardError;
+    }
+
+    // Two-sided p-value of Student's t with df degrees of freedom: I_{df / (df + t^2)}(df / 2, 1 / 2)
+    private static double tTestP(double t, int df) {
+        if (df < 1 || Double.isNaN(t)) {
+            return Double.NaN;
+        }
+        if (Double.isInfinite(t)) {
+            return 0.0;
+        }
+        return incompleteBeta(df / (df + t * t), df / 2.0, 0.5);
+    }
+
+    // Regularized incomplete beta function I_x(a, b), by its continued fraction (Lentz's method)
+    private static double incompleteBeta(double x, double a, double b) {
+        if (x <= 0.0) {
+            return 0.0;
+        }
+        if (x >= 1.0) {
+            return 1.0;
+        }
+        if (x > (a + 1.0) / (a + b + 2.0)) {
+            return 1.0 - incompleteBeta(1.0 - x, b, a);
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x)
+                + b * Math.log(1.0 - x)) / a;
+
+        double tiny = 1e-300;
+        double c = 1.0;
+        double d = 1.0 - (a + b) * x / (a + 1.0);
+        d = 1.0 / (Math.abs(d) < tiny ? tiny : d);
+        double f = d;
+        for (int m = 1; m <= 300; m++) {
+            for (int step = 0; step < 2; step++) {
+                double numerator = step == 0
+                        ? m * (b - m) * x / ((a + 2.0 * m - 1.0) * (a + 2.0 * m))
+                        : -(a + m) * (a + b + m) * x / ((a + 2.0 * m) * (a + 2.0 * m + 1.0));
+                d = 1.0 + numerator * d;
+                d = 1.0 / (Math.abs(d) < tiny ? tiny : d);
+                c = 1.0 + numerator / c;
+                c = Math.abs(c) < tiny ? tiny : c;
+                f *= c * d;
+                if (step == 1 && Math.abs(c * d - 1.0) < 1e-14) {
+                    return front * f;
+                }
+            }
+        }
+        return front * f;
+    }
+
+    // Lanczos approximation (g = 7, 9 terms)
+    private static double logGamma(double x) {
+        double[] coefficients = {
+                0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+                -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+                1.5056327351493116e-7
+        };
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1.0 - x);
+        }
+        x -= 1.0;
+        double sum = coefficients[0];
+        for (int i = 1; i < coefficients.length; i++) {
+            sum += coefficients[i] / (x + i);
+        }
+        double t = x + 7.5;
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+
+    /**
+     * Runs a range of (pair, chunk) units, numbered pair * number of chunks + chunk. Each unit does its chunk's
+     * randomization trials (counting sums at least as extreme as the observed one) and bootstrap trials (filling
+     * its slice of the pair's bootstrap means).
+     */
+    @SuppressWarnings("serial")
+    private class ResampleTask extends RecursiveAction {
+        private final double[][] differences;
+        private final SplittableRandom[][] randoms;
+        private final long[][] extremeCounts;
+        private final double[][] bootstrapMeans;
+        private final int from;
+        private final int to;
+
+        ResampleTask(double[][] differences, SplittableRandom[][] randoms, long[][] extremeCounts,
+                     double[][] bootstrapMeans, int from, int to) {
+            this.differences = differences;
+            this.randoms = randoms;
+            this.extremeCounts = extremeCounts;
+            this.bootstrapMeans = bootstrapMeans;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ResampleTask(differences, randoms, extremeCounts, bootstrapMeans, from, middle),
+                        new ResampleTask(differences, randoms, extremeCounts, bootstrapMeans, middle, to));
+                return;
+            }
+            for (int unit = from; unit < to; unit++) {
+                int nChunks = extremeCounts[0].length;
+                int pair = unit / nChunks;
+                int chunk = unit % nChunks;
+                int start = chunk * TRIALS_PER_CHUNK;
+                int end = Math.min(trials, start + TRIALS_PER_CHUNK);
+                extremeCounts[pair][chunk] = randomize(differences[pair], randoms[pair][2 * chunk], end - start);
+                bootstrap(differences[pair], randoms[pair][2 * chunk + 1], bootstrapMeans[pair], start, end);
+            }
+        }
+
+        // Flips the sign of each difference at random (64 flips per random long)
+        private long randomize(double[] d, SplittableRandom random, int nTrials) {
+            double observed = 0.0;
+            for (double value : d) {
+                observed += value;
+            }
+            // Sums that only differ by rounding count as equal to the observed one
+            double threshold = Math.abs(observed) - 1e-9 * d.length;
+            long extreme = 0;
+            for (int trial = 0; trial < nTrials; trial++) {
+                double sum = 0.0;
+                long bits = 0;
+                for (int q = 0; q < d.length; q++) {
+                    if ((q & 63) == 0) {
+                        bits = random.nextLong();
+                    }
+                    sum += (bits & 1) == 0 ? d[q] : -d[q];
+                    bits >>>= 1;
+                }
+                if (Math.abs(sum) >= threshold) {
+                    extreme++;
+                }
+            }
+            return extreme;
+        }
+
+        private void bootstrap(double[] d, SplittableRandom random, double[] means, int start, int end) {
+            for (int trial = start; trial < end; trial++) {
+                double sum = 0.0;
+                for (int q = 0; q < d.length; q++) {
+                    sum += d[random.nextInt(d.length)];
+                }
+                means[trial] = sum / d.length;
+            }
+        }
+    }
+}
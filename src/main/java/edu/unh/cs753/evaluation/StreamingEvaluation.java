@@ -0,0 +1,56 @@
+package edu.unh.cs753.evaluation;
+
+import java.util.List;
+
+/**
+ * Evaluates rankings as they are produced (e.g. straight out of a search), so runs can be scored without being
+ * written to run files and parsed back.
+ *
+ * add can be called from several threads at once, as long as no two calls are for the same run and query.
+ */
+public class StreamingEvaluation {
+    private static final int N_METRICS = Evaluator.Metric.values().length;
+
+    private final Evaluator evaluator;
+    // Every judged query and paragraph id is in the qrels' dictionary by now, so a frozen copy finds them all
+    private final IdDictionary.Frozen ids;
+    private final String[] runNames;
+    private final double[][] values;
+
+    /**
+     * @param evaluator: Evaluator (and so qrels and cutoff) to score rankings with.
+     * @param runNames: Names of the runs rankings will be added to (referred to by position in add).
+     */
+    public StreamingEvaluation(Evaluator evaluator, List<String> runNames) {
+        this.evaluator = evaluator;
+        this.ids = evaluator.getQrels().getIds().freeze();
+        this.runNames = runNames.toArray(new String[0]);
+        this.values = new double[runNames.size()][evaluator.getQrels().size() * N_METRICS];
+    }
+
+    /**
+     * Function: add
+     * Desc: Scores one query's ranking. Queries that aren't in the qrels are ignored, and queries that are in the
+     *       qrels but never added score 0, like a query missing from a run file.
+     * @param run: Position of the run in the names given to the constructor.
+     * @param queryId: Query (page id or section path).
+     * @param paragraphIds: Paragraph ids, best first.
+     */
+    public void add(int run, String queryId, String[] paragraphIds) {
+        Qrels qrels = evaluator.getQrels();
+        int q = qrels.indexOf(ids.lookup(queryId));
+        if (q < 0) {
+            return;
+        }
+        // Paragraphs the dictionary has never seen aren't judged, and -1 is never a key of the judgments
+        int[] paragraphs = new int[paragraphIds.length];
+        for (int i = 0; i < paragraphs.length; i++) {
+            paragraphs[i] = ids.lookup(paragraphIds[i]);
+        }
+        evaluator.evaluateQuery(q, paragraphs, paragraphs.length, values[run], q * N_METRICS);
+    }
+
+    public EvaluationResults getResults() {
+        return new EvaluationResults(evaluator, runNames, values);
+    }
+}
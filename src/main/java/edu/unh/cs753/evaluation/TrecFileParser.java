@@ -0,0 +1,170 @@
+package edu.unh.cs753.evaluation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Splits a whole qrels or run file (read into memory at once) into lines and whitespace-separated fields, and
+ * parses numbers straight from the bytes.
+ */
+class TrecFileParser {
+    private static final double[] POW10 = new double[19];
+    static {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10.0;
+        }
+    }
+
+    private final String path;
+    final byte[] data;
+    private int next = 0;
+    private int cursor = 0;
+    private int lineEnd = 0;
+    private int lineNumber = 0;
+
+    // Bounds of the current field
+    int start;
+    int end;
+
+    TrecFileParser(String path) throws IOException {
+        this.path = path;
+        this.data = Files.readAllBytes(Paths.get(path));
+    }
+
+    /**
+     * Function: nextLine
+     * Desc: Moves to the next line that isn't blank.
+     * @return False at the end of the file
+     */
+    boolean nextLine() {
+        while (next < data.length) {
+            int newline = next;
+            while (newline < data.length && data[newline] != '\n') {
+                newline++;
+            }
+            cursor = next;
+            lineEnd = newline > next && data[newline - 1] == '\r' ? newline - 1 : newline;
+            next = newline + 1;
+            lineNumber++;
+
+            skipWhitespace();
+            if (cursor < lineEnd) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Function: nextField
+     * Desc: Moves to the next field of the current line (between start and end).
+     * @return False if the line has no more fields
+     */
+    boolean nextField() {
+        skipWhitespace();
+        if (cursor >= lineEnd) {
+            return false;
+        }
+        start = cursor;
+        while (cursor < lineEnd && data[cursor] != ' ' && data[cursor] != '\t') {
+            cursor++;
+        }
+        end = cursor;
+        return true;
+    }
+
+    /**
+     * Function: requireField
+     * Desc: Like nextField, but a missing field is an error.
+     * @param name: What the field holds (for the error message).
+     */
+    void requireField(String name) throws IOException {
+        if (!nextField()) {
+            throw error("missing " + name);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (cursor < lineEnd && (data[cursor] == ' ' || data[cursor] == '\t')) {
+            cursor++;
+        }
+    }
+
+    int parseInt() throws IOException {
+        int i = start;
+        boolean negative = i < end && data[i] == '-';
+        if (negative || (i < end && data[i] == '+')) {
+            i++;
+        }
+        if (i == end || end - i > 9) {
+            return parseIntSlow();
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("not an integer: " + field());
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private int parseIntSlow() throws IOException {
+        try {
+            return Integer.parseInt(field());
+        } catch (NumberFormatException e) {
+            throw error("not an integer: " + field());
+        }
+    }
+
+    // Plain decimals ("12.3456") are parsed here, anything else (exponents, NaN, very long mantissas) by Float
+    float parseFloat() throws IOException {
+        int i = start;
+        boolean negative = i < end && data[i] == '-';
+        if (negative || (i < end && data[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = data[i];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return parseFloatSlow();
+            }
+        }
+        if (digits == 0) {
+            return parseFloatSlow();
+        }
+        double value = mantissa / POW10[Math.max(0, fractionDigits)];
+        return (float) (negative ? -value : value);
+    }
+
+    private float parseFloatSlow() throws IOException {
+        try {
+            return Float.parseFloat(field());
+        } catch (NumberFormatException e) {
+            throw error("not a number: " + field());
+        }
+    }
+
+    String field() {
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    IOException error(String message) {
+        return new IOException(path + ":" + lineNumber + ": " + message);
+    }
+}
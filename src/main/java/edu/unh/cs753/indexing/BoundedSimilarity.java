@@ -0,0 +1,9 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.search.similarities.SimilarityBase;
+
+/**
+ * A SimilarityBase that can bound the score of a term from the term's index-time statistics (see TermScoreBound).
+ */
+public abstract class BoundedSimilarity extends SimilarityBase implements TermScoreBound {
+}
@@ -0,0 +1,53 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Top-k heap with the same tie-breaking as Lucene's TopScoreDocCollector: documents are offered in
+ * increasing doc id order, and a document only replaces the weakest hit if it scores strictly higher.
+ */
+class HitHeap extends PriorityQueue<ScoreDoc> {
+    private final int k;
+
+    HitHeap(int k) {
+        super(k);
+        this.k = k;
+    }
+
+    @Override
+    protected boolean lessThan(ScoreDoc a, ScoreDoc b) {
+        if (a.score == b.score) {
+            return a.doc > b.doc;
+        }
+        return a.score < b.score;
+    }
+
+    /**
+     * @return The score a new document has to beat to get in, or -Infinity while the heap isn't full.
+     */
+    float threshold() {
+        return size() < k ? Float.NEGATIVE_INFINITY : top().score;
+    }
+
+    void offer(int doc, float score) {
+        if (size() < k) {
+            add(new ScoreDoc(doc, score));
+        } else if (score > top().score) {
+            ScoreDoc weakest = top();
+            weakest.doc = doc;
+            weakest.score = score;
+            updateTop();
+        }
+    }
+
+    TopDocs toTopDocs(long totalHits) {
+        ScoreDoc[] hits = new ScoreDoc[size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            hits[i] = pop();
+        }
+        float maxScore = hits.length == 0 ? Float.NaN : hits[0].score;
+        return new TopDocs(totalHits, hits, maxScore);
+    }
+}
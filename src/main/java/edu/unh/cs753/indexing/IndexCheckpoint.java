@@ -0,0 +1,120 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks how far through the paragraph .cbor file indexing has safely gotten, and stores that position in the
+ * commit user-data of the index so a crashed or interrupted build can pick up where it left off.
+ *
+ * Workers finish paragraphs out of order, so the checkpoint only moves past a paragraph once every paragraph
+ * before it has been added to the writer. Paragraphs after the checkpoint may also be in a commit; they are
+ * indexed again on resume, which is harmless because resumed builds upsert on the id term.
+ *
+ * A resumed build finds its place by paragraph count, and checks it against the id of the last paragraph.
+ */
+public class IndexCheckpoint {
+    public static final String OFFSET_KEY = "cbor.offset";
+    public static final String PARAGRAPHS_KEY = "cbor.paragraphs";
+    public static final String LAST_ID_KEY = "cbor.lastParaId";
+
+    // Bytes the decoder had read when the last paragraph covered by the checkpoint was returned. The decoder may
+    // read ahead, so this is only reported (it's not a safe place to start decoding from)
+    private long offset;
+
+    // Number of paragraphs (from the start of the file) covered by the checkpoint
+    private long paragraphs;
+    private String lastParaId;
+
+    // Paragraphs that are done but are waiting for an earlier paragraph to finish: ordinal -> {offset, paraId}
+    private final Map<Long, Object[]> finishedOutOfOrder = new HashMap<>();
+
+    public IndexCheckpoint(long offset, long paragraphs, String lastParaId) {
+        this.offset = offset;
+        this.paragraphs = paragraphs;
+        this.lastParaId = lastParaId;
+    }
+
+    public static IndexCheckpoint empty() {
+        return new IndexCheckpoint(0, 0, "");
+    }
+
+    /**
+     * Function: read
+     * Desc: Reads the checkpoint from the latest commit of an index directory.
+     * @return The stored checkpoint, or an empty one if the index (or its checkpoint) doesn't exist.
+     */
+    public static IndexCheckpoint read(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir)) {
+            return empty();
+        }
+        Map<String, String> userData = SegmentInfos.readLatestCommit(dir).getUserData();
+        if (!userData.containsKey(OFFSET_KEY)) {
+            return empty();
+        }
+        return new IndexCheckpoint(
+                Long.parseLong(userData.get(OFFSET_KEY)),
+                Long.parseLong(userData.get(PARAGRAPHS_KEY)),
+                userData.getOrDefault(LAST_ID_KEY, ""));
+    }
+
+    /**
+     * Function: earliest
+     * Desc: Of several checkpoints (e.g. one per shard), returns the one furthest from the end of the file.
+     */
+    public static IndexCheckpoint earliest(IndexCheckpoint a, IndexCheckpoint b) {
+        return a.getParagraphs() <= b.getParagraphs() ? a : b;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    public synchronized long getParagraphs() {
+        return paragraphs;
+    }
+
+    public synchronized String getLastParaId() {
+        return lastParaId;
+    }
+
+    /**
+     * Function: finish
+     * Desc: Marks a paragraph as added to the writer.
+     * @param ordinal: Position of the paragraph in the cbor file (0 for the first paragraph).
+     * @param offsetAfter: Byte offset just past the paragraph.
+     * @param paraId: Id of the paragraph.
+     */
+    public synchronized void finish(long ordinal, long offsetAfter, String paraId) {
+        finishedOutOfOrder.put(ordinal, new Object[] { offsetAfter, paraId });
+        Object[] next;
+        while ((next = finishedOutOfOrder.remove(paragraphs)) != null) {
+            offset = (Long) next[0];
+            lastParaId = (String) next[1];
+            paragraphs++;
+        }
+    }
+
+    /**
+     * Function: commit
+     * Desc: Commits the writer with this checkpoint in its user-data. Existing user-data is kept, except what
+     *       finalize recorded: the commit may add documents, so the index is no longer finalized.
+     *       The checkpoint is captured before committing, so every paragraph it covers is in the commit.
+     */
+    public void commit(IndexWriter writer) throws IOException {
+        Map<String, String> userData = IndexFinalizer.withoutFinalization(writer.getLiveCommitData());
+        synchronized (this) {
+            userData.put(OFFSET_KEY, String.valueOf(offset));
+            userData.put(PARAGRAPHS_KEY, String.valueOf(paragraphs));
+            userData.put(LAST_ID_KEY, lastParaId);
+        }
+        writer.setLiveCommitData(userData.entrySet());
+        writer.commit();
+    }
+}
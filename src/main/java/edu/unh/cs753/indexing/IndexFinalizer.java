@@ -0,0 +1,225 @@
+package edu.unh.cs753.indexing;
+
+import edu.unh.cs753.utils.IndexUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene70.Lucene70Codec;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergePolicyWrapper;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepares a finished index for read-only serving: force-merges it down to a few segments and optionally rewrites
+ * every segment with a given stored-fields mode. It also records collection statistics in the commit user-data,
+ * for Main finalize to report; searches don't read them (Lucene's own statistics come from the reader).
+ *
+ * A finalized index is opened with memory-mapped (and, if asked for, preloaded) files by
+ * IndexUtils.openIndexDirectory. Existing user-data (such as the indexing checkpoint) is kept, and the
+ * "term_impacts" file is recomputed over the merged segments if the index had one.
+ *
+ * Adding documents to a finalized index works as usual, but it is no longer finalized: every indexing commit
+ * (IndexCheckpoint.commit) drops the "finalized." and "stats." user-data, so run finalize again after updating it.
+ */
+public class IndexFinalizer {
+    private static final String FINALIZED_PREFIX = "finalized.";
+    private static final String STATS_PREFIX = "stats.";
+    public static final String FINALIZED_KEY = FINALIZED_PREFIX + "time";
+    public static final String PRELOAD_KEY = FINALIZED_PREFIX + "preload";
+    public static final String SEGMENTS_KEY = FINALIZED_PREFIX + "segments";
+    public static final String NUM_DOCS_KEY = STATS_PREFIX + "numDocs";
+    public static final String DOC_COUNT_KEY = STATS_PREFIX + "docCount";
+    public static final String SUM_TOTAL_TERM_FREQ_KEY = STATS_PREFIX + "sumTotalTermFreq";
+    public static final String SUM_DOC_FREQ_KEY = STATS_PREFIX + "sumDocFreq";
+    public static final String TERMS_KEY = STATS_PREFIX + "terms";
+
+    private static final String FIELD = "text";
+
+    private int maxSegments = 1;
+
+    // Stored-fields mode every segment is rewritten in (null leaves segments that aren't merged as they are)
+    private Lucene50StoredFieldsFormat.Mode storedFieldsMode = null;
+
+    // Whether searchers should load the whole index into memory when they open it
+    private boolean preload = false;
+
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = Math.max(1, maxSegments);
+    }
+
+    public void setStoredFieldsMode(Lucene50StoredFieldsFormat.Mode storedFieldsMode) {
+        this.storedFieldsMode = storedFieldsMode;
+    }
+
+    public void setPreload(boolean preload) {
+        this.preload = preload;
+    }
+
+    /**
+     * Function: finalizeIndex
+     * Desc: Finalizes an index (every shard of a sharded index, each down to maxSegments segments).
+     * @param indexLoc: Location of the Lucene index directory.
+     * @return Commit user-data of each finalized directory, in shard order
+     */
+    public List<Map<String, String>> finalizeIndex(String indexLoc) throws IOException {
+        List<String> locations = IndexUtils.listShardLocations(indexLoc);
+        if (locations.isEmpty()) {
+            locations = Collections.singletonList(indexLoc);
+        }
+
+        List<Map<String, String>> results = new ArrayList<>();
+        for (String location : locations) {
+            try (Directory dir = FSDirectory.open(Paths.get(location))) {
+                results.add(finalizeDirectory(dir));
+            }
+        }
+        return results;
+    }
+
+    private Map<String, String> finalizeDirectory(Directory dir) throws IOException {
+        boolean hasImpacts = Arrays.asList(dir.listAll()).contains(TermImpacts.FILE_NAME);
+        IndexWriterConfig conf = new IndexWriterConfig(new StandardAnalyzer());
+        conf.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+        if (storedFieldsMode != null) {
+            conf.setCodec(new Lucene70Codec(storedFieldsMode));
+            conf.setMergePolicy(new StoredFieldsModeMergePolicy(new TieredMergePolicy(), storedFieldsMode));
+        }
+
+        Map<String, String> userData = new HashMap<>();
+        try (IndexWriter writer = new IndexWriter(dir, conf)) {
+            writer.forceMerge(maxSegments);
+
+            Iterable<Map.Entry<String, String>> existing = writer.getLiveCommitData();
+            if (existing != null) {
+                for (Map.Entry<String, String> entry : existing) {
+                    userData.put(entry.getKey(), entry.getValue());
+                }
+            }
+            try (DirectoryReader reader = DirectoryReader.open(writer)) {
+                userData.putAll(collectStats(reader));
+                userData.put(SEGMENTS_KEY, String.valueOf(reader.leaves().size()));
+            }
+            userData.put(PRELOAD_KEY, String.valueOf(preload));
+            userData.put(FINALIZED_KEY, String.valueOf(System.currentTimeMillis()));
+            writer.setLiveCommitData(userData.entrySet());
+            writer.commit();
+        }
+
+        // Merging drops deleted documents, which can only tighten the bounds, but the file has to be newer than
+        // the commit for a refreshing searcher to trust it
+        if (hasImpacts) {
+            TermImpacts.write(dir, FIELD);
+        }
+        return userData;
+    }
+
+    private static Map<String, String> collectStats(DirectoryReader reader) throws IOException {
+        Map<String, String> stats = new HashMap<>();
+        stats.put(NUM_DOCS_KEY, String.valueOf(reader.numDocs()));
+        stats.put(DOC_COUNT_KEY, String.valueOf(reader.getDocCount(FIELD)));
+        stats.put(SUM_TOTAL_TERM_FREQ_KEY, String.valueOf(reader.getSumTotalTermFreq(FIELD)));
+        stats.put(SUM_DOC_FREQ_KEY, String.valueOf(reader.getSumDocFreq(FIELD)));
+
+        // Terms.size() is only known for a single segment; across segments the merged terms have to be counted
+        long nTerms = 0;
+        Terms terms = MultiFields.getTerms(reader, FIELD);
+        if (terms != null) {
+            nTerms = terms.size();
+            if (nTerms < 0) {
+                nTerms = 0;
+                TermsEnum termsEnum = terms.iterator();
+                while (termsEnum.next() != null) {
+                    nTerms++;
+                }
+            }
+        }
+        stats.put(TERMS_KEY, String.valueOf(nTerms));
+        return stats;
+    }
+
+    /**
+     * Function: withoutFinalization
+     * Desc: Copies commit user-data without the keys finalize adds, for commits that change the index.
+     */
+    public static Map<String, String> withoutFinalization(Iterable<Map.Entry<String, String>> userData) {
+        Map<String, String> kept = new HashMap<>();
+        if (userData != null) {
+            for (Map.Entry<String, String> entry : userData) {
+                if (!entry.getKey().startsWith(FINALIZED_PREFIX) && !entry.getKey().startsWith(STATS_PREFIX)) {
+                    kept.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Function: isFinalized
+     * Desc: Whether the latest commit of an index directory was made by finalize.
+     */
+    public static boolean isFinalized(Map<String, String> userData) {
+        return userData.containsKey(FINALIZED_KEY);
+    }
+
+    /**
+     * Function: readUserData
+     * Desc: Reads the commit user-data of the latest commit of an index directory.
+     */
+    public static Map<String, String> readUserData(Directory dir) throws IOException {
+        return SegmentInfos.readLatestCommit(dir).getUserData();
+    }
+
+    /**
+     * Merges segments as the wrapped policy would for forceMerge, and once no merges are left, rewrites every
+     * remaining segment whose stored fields aren't in the wanted mode on its own (so the segment count stays).
+     */
+    private static class StoredFieldsModeMergePolicy extends MergePolicyWrapper {
+        private final Lucene50StoredFieldsFormat.Mode mode;
+
+        StoredFieldsModeMergePolicy(MergePolicy in, Lucene50StoredFieldsFormat.Mode mode) {
+            super(in);
+            this.mode = mode;
+        }
+
+        @Override
+        public MergeSpecification findForcedMerges(SegmentInfos segmentInfos, int maxSegmentCount,
+                                                   Map<SegmentCommitInfo, Boolean> segmentsToMerge,
+                                                   IndexWriter writer) throws IOException {
+            MergeSpecification spec = in.findForcedMerges(segmentInfos, maxSegmentCount, segmentsToMerge, writer);
+            if (spec != null) {
+                return spec;
+            }
+
+            Collection<SegmentCommitInfo> merging = writer.getMergingSegments();
+            for (SegmentCommitInfo info : segmentInfos) {
+                String segmentMode = info.info.getAttribute(Lucene50StoredFieldsFormat.MODE_KEY);
+                if (segmentsToMerge.containsKey(info) && !merging.contains(info) && !mode.name().equals(segmentMode)) {
+                    if (spec == null) {
+                        spec = new MergeSpecification();
+                    }
+                    spec.add(new OneMerge(Collections.singletonList(info)));
+                }
+            }
+            return spec;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.unh.cs753.indexing;
+
+import edu.unh.cs.treccar_v2.Data;
+import edu.unh.cs753.utils.CountingInputStream;
+import edu.unh.cs753.utils.IndexUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end check of resuming an index build: indexes the first paragraphs of a cbor file, resumes over the
+ * whole file from that build's checkpoint, and checks that the result holds every paragraph exactly once.
+ * The first build is finalized before it's resumed, so the check also makes sure the resumed index isn't still
+ * marked as finalized.
+ */
+public class IndexResumeCheck {
+    private static final int MAX_REPORTED = 10;
+
+    /**
+     * Function: run
+     * Desc: Runs the check in a temporary directory (removed afterwards).
+     * @param cborLoc: Location of a paragraph cbor file.
+     * @param stopAfter: Number of paragraphs the first (interrupted) build indexes.
+     * @return Problems found, empty if the resumed index is complete
+     */
+    public static List<String> run(String cborLoc, int stopAfter) throws IOException {
+        List<String> problems = new ArrayList<>();
+        Path dir = Files.createTempDirectory("cs753-resume-check");
+        try {
+            List<Data.Paragraph> prefix = new ArrayList<>();
+            try (CountingInputStream stream = IndexUtils.openCborStream(cborLoc, 0)) {
+                for (Data.Paragraph p : IndexUtils.createParagraphIterator(stream)) {
+                    if (prefix.size() == stopAfter) {
+                        break;
+                    }
+                    prefix.add(p);
+                }
+            }
+            LuceneIndexer first = new LuceneIndexer(dir.toString(), 64, 1, IndexWriterConfig.OpenMode.CREATE);
+            first.setComputeImpacts(false);
+            first.doIndex(prefix);
+            new IndexFinalizer().finalizeIndex(dir.toString());
+
+            LuceneIndexer resumed = new LuceneIndexer(dir.toString(), 64, 1,
+                    IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            resumed.setResume(true);
+            resumed.setComputeImpacts(false);
+            long resumedCount = resumed.doIndex(cborLoc);
+
+            long total = 0;
+            try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(dir));
+                 CountingInputStream stream = IndexUtils.openCborStream(cborLoc, 0)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                for (Data.Paragraph p : IndexUtils.createParagraphIterator(stream)) {
+                    total++;
+                    int copies = searcher.count(new TermQuery(new Term("id", p.getParaId())));
+                    if (copies != 1 && problems.size() < MAX_REPORTED) {
+                        problems.add("Paragraph " + p.getParaId() + " is in the index " + copies + " times");
+                    }
+                }
+                if (reader.numDocs() != total) {
+                    problems.add("The index holds " + reader.numDocs() + " paragraphs, the file " + total);
+                }
+            }
+            try (FSDirectory fsDir = FSDirectory.open(dir)) {
+                Map<String, String> userData = IndexFinalizer.readUserData(fsDir);
+                if (!IndexFinalizer.withoutFinalization(userData.entrySet()).equals(userData)) {
+                    problems.add("The resumed index still has finalize's user-data: " + userData);
+                }
+            }
+            if (resumedCount != total - prefix.size()) {
+                problems.add("The resumed build indexed " + resumedCount + " paragraphs, expected "
+                        + (total - prefix.size()));
+            }
+        } finally {
+            delete(dir);
+        }
+        return problems;
+    }
+
+    private static void delete(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.index.FieldInvertState;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Document side of lnc.ltn: a term's weight in a document is 1 + log10(tf), divided by the Euclidean norm of all
+ * of the document's term weights (the same log-tf the ltn query side uses).
+ *
+ * The norm needs every term of the document, so LuceneIndexer computes it while indexing and stores it in the
+ * "lnc_norm" doc values field; scoring a hit is then one doc values lookup. Segments indexed before the field
+ * existed fall back to the old approximation, log(1 + tf) / docLen, from the length norms. The two aren't on the
+ * same scale, so an index that has segments of both kinds gets a warning (once per reader) when it's searched.
+ */
+public class LncSimilarity extends Similarity implements TermScoreBound {
+    public static final String NORM_FIELD = "lnc_norm";
+
+    // Only used if documents are indexed with this similarity; writes the same length norms as the default
+    private static final Similarity lengthNorms = new BM25Similarity();
+
+    // 1 + log10(tf) for the small frequencies almost every posting has
+    private static final double[] TERM_WEIGHTS = new double[256];
+    static {
+        for (int tf = 0; tf < TERM_WEIGHTS.length; tf++) {
+            TERM_WEIGHTS[tf] = 1 + Math.log10(tf);
+        }
+    }
+
+    // Top-level readers already checked for a mix of segments with and without lnc_norm
+    private final Map<IndexReader, Boolean> checkedReaders = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Function: termWeight
+     * Desc: Log-scaled term frequency (the "l" of lnc), before cosine normalization.
+     */
+    public static double termWeight(float freq) {
+        int tf = (int) freq;
+        if (tf == freq && tf >= 0 && tf < TERM_WEIGHTS.length) {
+            return TERM_WEIGHTS[tf];
+        }
+        return 1 + Math.log10(freq);
+    }
+
+    @Override
+    public long computeNorm(FieldInvertState state) {
+        return lengthNorms.computeNorm(state);
+    }
+
+    @Override
+    public SimWeight computeWeight(float boost, CollectionStatistics collectionStats, TermStatistics... termStats) {
+        return new LncWeight(collectionStats.field(), boost);
+    }
+
+    @Override
+    public SimScorer simScorer(SimWeight weight, LeafReaderContext context) throws IOException {
+        LncWeight lncWeight = (LncWeight) weight;
+        if (!hasDocumentNorms(context.reader())) {
+            warnIfMixed(ReaderUtil.getTopLevelContext(context).reader());
+        }
+        DocumentWeights weights = DocumentWeights.forLeaf(context.reader(), lncWeight.field);
+        return new SimScorer() {
+            @Override
+            public float score(int doc, float freq) throws IOException {
+                return (float) (lncWeight.boost * weights.get(doc, freq));
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public float computeSlopFactor(int distance) {
+                return 1.0f / (distance + 1);
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public float computePayloadFactor(int doc, int start, int end, BytesRef payload) {
+                return 1f;
+            }
+        };
+    }
+
+    private static boolean hasDocumentNorms(LeafReader reader) {
+        return reader.getFieldInfos().fieldInfo(NORM_FIELD) != null;
+    }
+
+    // Segments without lnc_norm score on a different scale, so a ranking that mixes them isn't a real lnc ranking
+    private void warnIfMixed(IndexReader reader) {
+        if (checkedReaders.putIfAbsent(reader, Boolean.TRUE) != null) {
+            return;
+        }
+        int withNorms = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (hasDocumentNorms(leaf.reader())) {
+                withNorms++;
+            }
+        }
+        if (withNorms > 0) {
+            System.out.println("Warning: " + (reader.leaves().size() - withNorms) + " of " + reader.leaves().size()
+                    + " segments have no " + NORM_FIELD + " (indexed before it existed), so their lnc scores aren't"
+                    + " on the same scale as the rest. Re-index to rank them consistently.");
+        }
+    }
+
+    @Override
+    public double maxScore(TermImpacts.Impact impact) {
+        return impact.maxLncWeight;
+    }
+
+    @Override
+    public String toString() {
+        return "lnc";
+    }
+
+    private static class LncWeight extends SimWeight {
+        final String field;
+        final float boost;
+
+        LncWeight(String field, float boost) {
+            this.field = field;
+            this.boost = boost;
+        }
+    }
+
+    /**
+     * A term's normalized lnc weight in each document of one segment. TermImpacts bounds scores with the same
+     * class, so a bound always covers what the scorer computes. Documents must be asked for in increasing order.
+     */
+    abstract static class DocumentWeights {
+
+        abstract double get(int doc, float freq) throws IOException;
+
+        static DocumentWeights forLeaf(LeafReader reader, String field) throws IOException {
+            NumericDocValues docNorms = reader.getNumericDocValues(NORM_FIELD);
+            if (docNorms != null) {
+                return new DocumentWeights() {
+                    @Override
+                    double get(int doc, float freq) throws IOException {
+                        float norm = docNorms.advanceExact(doc) ? Float.intBitsToFloat((int) docNorms.longValue()) : 0f;
+                        return norm > 0 ? termWeight(freq) / norm : 0.0;
+                    }
+                };
+            }
+
+            NumericDocValues lengthNorms = reader.getNormValues(field);
+            return new DocumentWeights() {
+                @Override
+                double get(int doc, float freq) throws IOException {
+                    float docLen = 1f;
+                    if (lengthNorms != null) {
+                        docLen = lengthNorms.advanceExact(doc)
+                                ? TermImpacts.LENGTH_TABLE[Byte.toUnsignedInt((byte) lengthNorms.longValue())]
+                                : 0f;
+                    }
+                    // Rounded to float like the old SimilarityBase score, so the boost multiply matches it too
+                    return (float) (Math.log(1 + freq) / Math.sqrt(docLen) * (1 / Math.sqrt(docLen)));
+                }
+            };
+        }
+    }
+}
@@ -1,40 +1,472 @@
 package edu.unh.cs753.indexing;
 
 import edu.unh.cs.treccar_v2.Data;
+import edu.unh.cs753.utils.CountingInputStream;
 import edu.unh.cs753.utils.IndexUtils;
+import org.apache.lucene.analysis.CachingTokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 public class LuceneIndexer {
-    private final IndexWriter writer;
+    // One writer per shard (a single writer when the index isn't sharded)
+    private final IndexWriter[] writers;
 
-    public LuceneIndexer(String indexLoc) {
-        writer = IndexUtils.createIndexWriter(indexLoc);
+    // When >= 0, only paragraphs that hash to this shard are indexed (used to rebuild a single shard)
+    private int onlyShard = -1;
+
+    // Number of analysis / addDocument workers sharing the writer
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
+    // How many decoded paragraphs may be waiting for a worker at once
+    private int queueSize = 10000;
+
+    // Seconds between commits (0 means we only commit once, at the very end)
+    private long commitIntervalSeconds = 0;
+
+    // Number of shards paragraphs are partitioned into (can differ from writers.length when rebuilding one shard)
+    private int shardCount;
+
+    // When true, documents are upserted on their id term instead of blindly added
+    private final boolean upsert;
+
+    // When true, doIndex skips the part of the cbor file covered by the index's last checkpoint
+    private boolean resume = false;
+
+    // Whether the paragraph text is stored (it's only needed if something wants to display the text)
+    private boolean storeText = true;
+
+    // Whether per-term score bounds (see TermImpacts) are written once indexing is done
+    private boolean computeImpacts = true;
+
+    public LuceneIndexer(String indexLoc) throws IOException {
+        this(indexLoc, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+    }
+
+    public LuceneIndexer(String indexLoc, double ramBufferMB) throws IOException {
+        this(indexLoc, ramBufferMB, 1);
+    }
+
+    /**
+     * Creates an indexer that hash-partitions paragraphs (by paraId) into nShards independent indexes,
+     * stored under indexLoc/shard-0 ... indexLoc/shard-(nShards - 1). The RAM buffer is split between shards.
+     */
+    public LuceneIndexer(String indexLoc, double ramBufferMB, int nShards) throws IOException {
+        this(indexLoc, ramBufferMB, nShards, IndexWriterConfig.OpenMode.CREATE);
+    }
+
+    /**
+     * Same as above, but with a choice of OpenMode. With CREATE_OR_APPEND, the existing index is kept and every
+     * paragraph is upserted with updateDocument on its id, so re-indexing a changed paragraph replaces it.
+     * CREATE also removes shard directories left by an earlier build with more shards; other modes refuse an index
+     * that has a different number of shards (see IndexUtils.prepareShardLayout).
+     */
+    public LuceneIndexer(String indexLoc, double ramBufferMB, int nShards, IndexWriterConfig.OpenMode openMode)
+            throws IOException {
+        this(indexLoc, ramBufferMB, nShards, openMode, true);
+    }
+
+    // wholeIndex is false for one shard of a sharded index, whose layout forSingleShard checks instead
+    private LuceneIndexer(String indexLoc, double ramBufferMB, int nShards, IndexWriterConfig.OpenMode openMode,
+                          boolean wholeIndex) throws IOException {
+        if (wholeIndex) {
+            IndexUtils.prepareShardLayout(indexLoc, nShards, openMode);
+        }
+        writers = new IndexWriter[nShards];
+        shardCount = nShards;
+        upsert = openMode != IndexWriterConfig.OpenMode.CREATE;
+        if (nShards == 1) {
+            writers[0] = IndexUtils.createIndexWriter(indexLoc, ramBufferMB, openMode);
+        } else {
+            for (int i = 0; i < nShards; i++) {
+                writers[i] = IndexUtils.createIndexWriter(
+                        IndexUtils.shardLocation(indexLoc, i), ramBufferMB / nShards, openMode);
+            }
+        }
+    }
+
+    /**
+     * Creates an indexer that rebuilds only one shard of a sharded index, leaving the other shards untouched.
+     * Use CREATE to rebuild the shard from scratch, or CREATE_OR_APPEND to upsert into it (and to resume).
+     * The index must have been built with nShards shards (a new index is recorded as having nShards).
+     */
+    public static LuceneIndexer forSingleShard(String indexLoc, double ramBufferMB, int nShards, int shard,
+                                               IndexWriterConfig.OpenMode openMode) throws IOException {
+        if (nShards < 2 || shard < 0 || shard >= nShards) {
+            throw new IllegalArgumentException("No shard " + shard + " in an index of " + nShards + " shards");
+        }
+        IndexUtils.checkShardCount(indexLoc, nShards);
+        LuceneIndexer indexer = new LuceneIndexer(IndexUtils.shardLocation(indexLoc, shard), ramBufferMB, 1,
+                openMode, false);
+        indexer.onlyShard = shard;
+        indexer.shardCount = nShards;
+        return indexer;
+    }
+
+    /**
+     * Function: shardFor
+     * Desc: Returns the shard a paragraph belongs to. This must stay stable, or rebuilding a single shard
+     *       would pick up a different set of paragraphs than the original build.
+     */
+    public static int shardFor(String paraId, int nShards) {
+        return Math.floorMod(paraId.hashCode(), nShards);
+    }
+
+    public void setThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    public void setCommitInterval(long seconds) {
+        this.commitIntervalSeconds = Math.max(0, seconds);
+    }
+
+    /**
+     * Skips storing the paragraph text. Searching only needs the inverted index and the id doc values, so this
+     * shrinks the stored fields to just the id (a 100,000-paragraph index went from 40.1 MB to 15.5 MB).
+     */
+    public void setStoreText(boolean storeText) {
+        this.storeText = storeText;
+    }
+
+    public void setComputeImpacts(boolean computeImpacts) {
+        this.computeImpacts = computeImpacts;
+    }
+
+    /**
+     * Makes doIndex continue from the checkpoint stored in the index's last commit instead of from the start of
+     * the cbor file. Only meaningful when the indexer was opened in an append mode.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume && upsert;
+    }
+
+    /**
+     * Function: doIndex
+     * Desc: Indexes every paragraph in the cbor file. The calling thread decodes paragraphs and hands them to a
+     *       bounded queue, while nThreads workers turn them into documents and add them to the shared writer.
+     *       Flushing is driven by the writer's RAM buffer, and commits happen every commitIntervalSeconds.
+     *       When sharded, workers route each paragraph to its shard's writer, so all shards are built at once.
+     *       Every commit records a checkpoint (see IndexCheckpoint) that a resumed run starts from.
+     * @param cborLoc: Location of the paragraph cbor file to index.
+     * @return The number of paragraphs that were indexed.
+     */
+    public long doIndex(String cborLoc) throws IOException {
+        final IndexCheckpoint checkpoint = resume ? readCheckpoint() : IndexCheckpoint.empty();
+        if (resume) {
+            System.out.println("Resuming after paragraph " + checkpoint.getParagraphs()
+                    + " (" + checkpoint.getLastParaId() + ")");
+        }
+
+        // The decoder needs the file's header, and may read ahead of the paragraph it returns, so a resumed run
+        // decodes the file from the start and skips the paragraphs the checkpoint covers
+        try (CountingInputStream cborStream = IndexUtils.openCborStream(cborLoc, 0)) {
+            Iterator<Data.Paragraph> paragraphs = IndexUtils.createParagraphIterator(cborStream).iterator();
+            skipTo(paragraphs, checkpoint);
+            return doIndex(() -> paragraphs, cborStream::getCount, checkpoint);
+        }
+    }
+
+    // Skips the paragraphs covered by a checkpoint, checking that the last one is the paragraph it recorded
+    private static void skipTo(Iterator<Data.Paragraph> paragraphs, IndexCheckpoint checkpoint) throws IOException {
+        String lastParaId = "";
+        for (long i = 0; i < checkpoint.getParagraphs(); i++) {
+            if (!paragraphs.hasNext()) {
+                throw new IOException("The cbor file has fewer paragraphs than the checkpoint ("
+                        + checkpoint.getParagraphs() + ")");
+            }
+            lastParaId = paragraphs.next().getParaId();
+        }
+        if (!lastParaId.equals(checkpoint.getLastParaId())) {
+            throw new IOException("Paragraph " + checkpoint.getParagraphs() + " of the cbor file is " + lastParaId
+                    + ", but the checkpoint was taken after " + checkpoint.getLastParaId()
+                    + " (was the index built from a different file?)");
+        }
+    }
+
+    /**
+     * Function: doIndex
+     * Desc: Same as above, but indexes paragraphs that were already decoded (or built in memory, e.g. by the
+     *       benchmarks). Checkpoints count paragraphs, so if these are the first paragraphs of a cbor file, a later
+     *       run can resume from them over the whole file.
+     * @param paragraphs: Paragraphs to index.
+     * @return The number of paragraphs that were indexed.
+     */
+    public long doIndex(Iterable<Data.Paragraph> paragraphs) throws IOException {
+        return doIndex(paragraphs, () -> 0L, IndexCheckpoint.empty());
+    }
+
+    private long doIndex(Iterable<Data.Paragraph> paragraphs, LongSupplier offset, final IndexCheckpoint checkpoint)
+            throws IOException {
+        final BlockingQueue<PendingParagraph> queue = new ArrayBlockingQueue<>(queueSize);
+        final AtomicLong counter = new AtomicLong();
+        final IndexingState state = new IndexingState();
+        state.checkpoint = checkpoint;
+
+        ExecutorService workers = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            futures.add(workers.submit(() -> {
+                indexParagraphs(queue, state, counter);
+                return null;
+            }));
+        }
+
+        ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor();
+        if (commitIntervalSeconds > 0) {
+            committer.scheduleWithFixedDelay(() -> {
+                try {
+                    commitAll(checkpoint);
+                    System.out.println("Commited: " + counter.get() + " paragraphs so far.");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, commitIntervalSeconds, commitIntervalSeconds, TimeUnit.SECONDS);
+        }
+
+        boolean success = false;
+        try {
+            try {
+                long ordinal = checkpoint.getParagraphs();
+                for (Data.Paragraph p : paragraphs) {
+                    PendingParagraph pending = new PendingParagraph(p, ordinal++, offset.getAsLong());
+                    while (!queue.offer(pending, 100, TimeUnit.MILLISECONDS)) {
+                        checkWorkers(futures);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while decoding paragraphs", e);
+            } finally {
+                state.producerDone = true;
+                workers.shutdown();
+                stopCommitter(committer);
+            }
+
+            for (Future<?> f : futures) {
+                waitFor(f);
+            }
+
+            commitAll(checkpoint);
+            success = true;
+        } finally {
+            // Releases write.lock; everything up to the last periodic commit (and its checkpoint) stays on disk
+            if (!success) {
+                workers.shutdownNow();
+                rollbackAll();
+            }
+        }
+
+        for (IndexWriter writer : writers) {
+            writer.close();
+            if (computeImpacts) {
+                System.out.println("Computing term impacts for " + writer.getDirectory());
+                TermImpacts.write(writer.getDirectory(), "text");
+            }
+        }
+        return counter.get();
+    }
+
+    // Lets a periodic commit that is already running finish (interrupting it could abort the writer), so it can't
+    // race the final commit
+    private static void stopCommitter(ScheduledExecutorService committer) throws IOException {
+        committer.shutdown();
+        try {
+            while (!committer.awaitTermination(1, TimeUnit.SECONDS)) {
+                System.out.println("Waiting for a periodic commit to finish...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a periodic commit", e);
+        }
+    }
+
+    private void rollbackAll() {
+        for (IndexWriter writer : writers) {
+            try {
+                writer.rollback();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void commitAll(IndexCheckpoint checkpoint) throws IOException {
+        for (IndexWriter writer : writers) {
+            checkpoint.commit(writer);
+        }
+    }
+
+    // Shards are committed one after another, so after a crash we resume from the shard that is furthest behind
+    private IndexCheckpoint readCheckpoint() throws IOException {
+        IndexCheckpoint earliest = IndexCheckpoint.read(writers[0].getDirectory());
+        for (int i = 1; i < writers.length; i++) {
+            earliest = IndexCheckpoint.earliest(earliest, IndexCheckpoint.read(writers[i].getDirectory()));
+        }
+        return earliest;
+    }
+
+    // Worker loop: each worker reuses a single Document (and its fields) for every paragraph it indexes.
+    // The id is also written as a doc values field so searchers can look it up without loading stored fields.
+    // The text is analyzed once: the cached tokens give the paragraph's lnc norm, then the writer indexes them.
+    private void indexParagraphs(BlockingQueue<PendingParagraph> queue, IndexingState state, AtomicLong counter)
+            throws IOException, InterruptedException {
+        Document doc = new Document();
+        StringField idField = new StringField("id", "", Field.Store.YES);
+        BinaryDocValuesField idDocValuesField = new BinaryDocValuesField("id", new BytesRef());
+        FloatDocValuesField lncNormField = new FloatDocValuesField(LncSimilarity.NORM_FIELD, 0f);
+        StoredField storedTextField = new StoredField("text", "");
+        TextField textField = null; // Created from the first paragraph's tokens
+        doc.add(idField);
+        doc.add(idDocValuesField);
+        doc.add(lncNormField);
+        if (storeText) {
+            doc.add(storedTextField);
+        }
+        Map<String, int[]> termFreqs = new HashMap<>();
+
+        while (true) {
+            PendingParagraph pending = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (pending == null) {
+                if (state.producerDone && queue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+
+            Data.Paragraph p = pending.paragraph;
+            String paraId = p.getParaId();
+            int shard = shardCount == 1 ? 0 : shardFor(paraId, shardCount);
+            if (onlyShard >= 0 && shard != onlyShard) {
+                state.checkpoint.finish(pending.ordinal, pending.offsetAfter, paraId);
+                continue;
+            }
+
+            IndexWriter writer = writers[onlyShard >= 0 ? 0 : shard];
+            String text = p.getTextOnly();
+            CachingTokenFilter tokens = new CachingTokenFilter(writer.getAnalyzer().tokenStream("text", text));
+            try {
+                lncNormField.setFloatValue(computeLncNorm(tokens, termFreqs));
+            } catch (IOException | RuntimeException e) {
+                // The writer hasn't taken the stream yet, and the analyzer's next tokenStream() on this thread
+                // fails if it's left open
+                IOUtils.closeWhileHandlingException(tokens);
+                throw e;
+            }
+            if (textField == null) {
+                textField = new TextField("text", tokens);
+                doc.add(textField);
+            } else {
+                textField.setTokenStream(tokens);
+            }
+            storedTextField.setStringValue(text);
+            idField.setStringValue(paraId);
+            idDocValuesField.setBytesValue(new BytesRef(paraId));
+            if (upsert) {
+                writer.updateDocument(new Term("id", paraId), doc);
+            } else {
+                writer.addDocument(doc);
+            }
+            state.checkpoint.finish(pending.ordinal, pending.offsetAfter, paraId);
+
+            long indexed = counter.incrementAndGet();
+            if (indexed % 100000 == 0) {
+                System.out.println("Indexed: " + indexed + " paragraphs so far.");
+            }
+        }
     }
 
-    public void doIndex(String cborLoc) throws IOException {
-        int counter = 0;
-        for (Data.Paragraph p : IndexUtils.createParagraphIterator(cborLoc)) {
-            Document doc = new Document();
-            doc.add(new StringField("id", p.getParaId(), Field.Store.YES));
-            doc.add(new TextField("text", p.getTextOnly(), Field.Store.YES));
-            writer.addDocument(doc);
-            counter++;
-            if (counter % 50 == 0) {
-                System.out.println("Commited: " + counter + " paragraphs so far.");
-                writer.commit();
+    // Rethrows the failure of any worker that died, so the decoder doesn't block forever on a full queue
+    private static void checkWorkers(List<Future<?>> futures) throws IOException {
+        for (Future<?> f : futures) {
+            if (f.isDone()) {
+                waitFor(f);
+                throw new IOException("Indexing worker exited before all paragraphs were decoded");
             }
         }
+    }
 
-        writer.commit();
-        writer.close();
+    private static void waitFor(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for indexing workers", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Indexing worker failed", e.getCause());
+        }
     }
 
+    /**
+     * Function: computeLncNorm
+     * Desc: Euclidean norm of a paragraph's lnc term weights (see LncSimilarity). Reads the whole token stream,
+     *       which is then reset for the writer, so the stream should be a CachingTokenFilter.
+     * @param tokens: The paragraph's analyzed text.
+     * @param termFreqs: Scratch map (cleared here) for the paragraph's term frequencies.
+     */
+    private static float computeLncNorm(TokenStream tokens, Map<String, int[]> termFreqs) throws IOException {
+        termFreqs.clear();
+        CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+        tokens.reset();
+        while (tokens.incrementToken()) {
+            termFreqs.computeIfAbsent(term.toString(), t -> new int[1])[0]++;
+        }
 
+        double sumOfSquares = 0.0;
+        for (int[] freq : termFreqs.values()) {
+            double weight = LncSimilarity.termWeight(freq[0]);
+            sumOfSquares += weight * weight;
+        }
+        return (float) Math.sqrt(sumOfSquares);
+    }
+
+    private static class IndexingState {
+        volatile boolean producerDone = false;
+        volatile IndexCheckpoint checkpoint;
+    }
+
+    // A decoded paragraph, along with where it sits in the cbor file
+    private static class PendingParagraph {
+        final Data.Paragraph paragraph;
+        final long ordinal;
+        final long offsetAfter;
+
+        PendingParagraph(Data.Paragraph paragraph, long ordinal, long offsetAfter) {
+            this.paragraph = paragraph;
+            this.ordinal = ordinal;
+            this.offsetAfter = offsetAfter;
+        }
+    }
 
 }
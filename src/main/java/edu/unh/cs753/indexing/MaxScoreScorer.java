@@ -0,0 +1,300 @@
+package edu.unh.cs753.indexing;
+
+import edu.unh.cs753.utils.SlicedIndexSearcher;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Top-k search with MaxScore dynamic pruning for our tf-idf similarities (lnc, bnn, anc).
+ *
+ * Each query term gets an upper bound on its score (its boost times TermScoreBound.maxScore of its index-time
+ * impacts). Terms are sorted by bound; once the k-th best score is higher than the summed bounds of the weakest
+ * terms, those terms become "non-essential": a document that only contains them can't make the top-k, so only
+ * the essential terms' postings drive the search, and non-essential terms are only looked up (with advance) for
+ * documents that can still beat the k-th score.
+ *
+ * Scores come from the similarity's own SimScorers, and a document enters the heap under the same rule as in
+ * TopScoreDocCollector, so the top-k is the same as a regular search. Only the hit count is smaller, since
+ * pruned documents aren't counted.
+ *
+ * On a SlicedIndexSearcher, each slice is searched on the searcher's executor with its own heap (and threshold),
+ * and the slices' top-k are merged like IndexSearcher merges them, so ties still go to the lower doc id.
+ */
+public class MaxScoreScorer {
+    // Bounds are inflated slightly so float rounding in the similarities can never push a score above its bound
+    private static final double BOUND_SLACK = 1e-5;
+
+    private final IndexSearcher searcher;
+    private final Similarity similarity;
+    private final TermScoreBound bound;
+    private final TermImpacts impacts;
+    private final int topK;
+
+    /**
+     * @param similarity: Similarity the query is scored with.
+     * @param bound: Bounds on that similarity's term scores (usually the similarity itself).
+     */
+    public MaxScoreScorer(IndexSearcher searcher, Similarity similarity, TermScoreBound bound, TermImpacts impacts,
+                          int topK) {
+        this.searcher = searcher;
+        this.similarity = similarity;
+        this.bound = bound;
+        this.impacts = impacts;
+        this.topK = topK;
+    }
+
+    /**
+     * Function: canScore
+     * Desc: MaxScore needs non-negative boosts (otherwise a term can lower a score, and the bounds don't hold)
+     *       and a query made only of (boosted) term clauses.
+     */
+    public static boolean canScore(Query query) {
+        QueryTerms clauses;
+        try {
+            clauses = QueryTerms.extract(query);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (float boost : clauses.boosts) {
+            if (!(boost >= 0) || Float.isInfinite(boost)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function: search
+     * Desc: Returns the top-k documents of a query (which must pass canScore).
+     */
+    public TopDocs search(Query query) throws IOException {
+        QueryTerms clauses = QueryTerms.extract(query);
+
+        // Clauses on the same term share a cursor (and its postings)
+        Map<Term, Cursor> cursorsByTerm = new LinkedHashMap<>();
+        for (int c = 0; c < clauses.size(); c++) {
+            Term term = clauses.terms[c];
+            Cursor cursor = cursorsByTerm.get(term);
+            if (cursor == null) {
+                TermContext context = TermContext.build(searcher.getTopReaderContext(), term);
+                if (context.docFreq() == 0) {
+                    continue;
+                }
+                cursor = new Cursor(term, context);
+                cursorsByTerm.put(term, cursor);
+            }
+
+            CollectionStatistics collectionStats = searcher.collectionStatistics(term.field());
+            cursor.weights.add(similarity.computeWeight(clauses.boosts[c], collectionStats,
+                    searcher.termStatistics(term, cursor.context)));
+            cursor.bound += clauses.boosts[c] * bound.maxScore(impacts.get(term)) * (1 + BOUND_SLACK);
+        }
+
+        // Weakest terms first
+        Cursor[] cursors = cursorsByTerm.values().toArray(new Cursor[0]);
+        Arrays.sort(cursors, Comparator.comparingDouble(c -> c.bound));
+
+        if (searcher instanceof SlicedIndexSearcher && ((SlicedIndexSearcher) searcher).getSliceCount() > 1) {
+            return searchSlices((SlicedIndexSearcher) searcher, cursors);
+        }
+        return scoreLeaves(searcher.getIndexReader().leaves(), cursors);
+    }
+
+    private TopDocs scoreLeaves(List<LeafReaderContext> leaves, Cursor[] cursors) throws IOException {
+        HitHeap heap = new HitHeap(topK);
+        long[] scored = new long[1];
+        for (LeafReaderContext leaf : leaves) {
+            scoreLeaf(leaf, cursors, heap, scored);
+        }
+        return heap.toTopDocs(scored[0]);
+    }
+
+    // Each slice gets its own cursors (postings are per thread); the weights and bounds are shared, read-only
+    private TopDocs searchSlices(SlicedIndexSearcher slicedSearcher, Cursor[] cursors) throws IOException {
+        List<LeafReaderContext[]> slices = slicedSearcher.getSliceLeaves();
+        List<Future<TopDocs>> futures = new ArrayList<>();
+        for (LeafReaderContext[] slice : slices) {
+            Cursor[] sliceCursors = new Cursor[cursors.length];
+            for (int i = 0; i < cursors.length; i++) {
+                sliceCursors[i] = cursors[i].copy();
+            }
+            futures.add(slicedSearcher.getSliceExecutor().submit(
+                    () -> scoreLeaves(Arrays.asList(slice), sliceCursors)));
+        }
+
+        TopDocs[] sliceTopDocs = new TopDocs[slices.size()];
+        for (int s = 0; s < sliceTopDocs.length; s++) {
+            try {
+                sliceTopDocs[s] = futures.get(s).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a slice", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Scoring a slice failed", e.getCause());
+            }
+        }
+        // Slices are in doc id order, and merge breaks score ties by slice, then by position in the slice
+        return TopDocs.merge(topK, sliceTopDocs);
+    }
+
+    private void scoreLeaf(LeafReaderContext leaf, Cursor[] allCursors, HitHeap heap, long[] scored)
+            throws IOException {
+        List<Cursor> present = new ArrayList<>();
+        for (Cursor cursor : allCursors) {
+            if (cursor.open(leaf, similarity)) {
+                present.add(cursor);
+            }
+        }
+        Cursor[] cursors = present.toArray(new Cursor[0]);
+        int n = cursors.length;
+        if (n == 0) {
+            return;
+        }
+
+        // upTo[i]: the most that cursors 0..i can add to a score together
+        double[] upTo = new double[n];
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += cursors[i].bound;
+            upTo[i] = sum;
+        }
+
+        Bits liveDocs = leaf.reader().getLiveDocs();
+        float threshold = heap.threshold();
+        int firstEssential = firstEssential(upTo, threshold);
+        for (int i = firstEssential; i < n; i++) {
+            cursors[i].postings.nextDoc();
+        }
+
+        while (firstEssential < n) {
+            int doc = DocIdSetIterator.NO_MORE_DOCS;
+            for (int i = firstEssential; i < n; i++) {
+                doc = Math.min(doc, cursors[i].postings.docID());
+            }
+            if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                break;
+            }
+
+            boolean live = liveDocs == null || liveDocs.get(doc);
+            double score = 0.0;
+            for (int i = firstEssential; i < n; i++) {
+                PostingsEnum postings = cursors[i].postings;
+                if (postings.docID() == doc) {
+                    if (live) {
+                        score += cursors[i].score(doc);
+                    }
+                    postings.nextDoc();
+                }
+            }
+
+            if (live) {
+                // Only look at the non-essential terms while the document can still beat the threshold
+                boolean competitive = true;
+                for (int i = firstEssential - 1; i >= 0; i--) {
+                    if (score + upTo[i] <= threshold) {
+                        competitive = false;
+                        break;
+                    }
+                    PostingsEnum postings = cursors[i].postings;
+                    if (postings.docID() < doc) {
+                        postings.advance(doc);
+                    }
+                    if (postings.docID() == doc) {
+                        score += cursors[i].score(doc);
+                    }
+                }
+
+                if (competitive) {
+                    scored[0]++;
+                    heap.offer(leaf.docBase + doc, (float) score);
+                    float newThreshold = heap.threshold();
+                    if (newThreshold != threshold) {
+                        threshold = newThreshold;
+                        int newFirstEssential = firstEssential(upTo, threshold);
+                        // Cursors that just became non-essential simply stop being driven; they're advanced lazily
+                        firstEssential = Math.max(firstEssential, newFirstEssential);
+                    }
+                }
+            }
+        }
+    }
+
+    // Index of the first cursor that has to be iterated: the cursors before it can't beat the threshold together
+    private static int firstEssential(double[] upTo, float threshold) {
+        int i = 0;
+        while (i < upTo.length && upTo[i] <= threshold) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * One query term: its postings in the current segment and a SimScorer per clause that uses the term.
+     */
+    private static class Cursor {
+        final Term term;
+        final TermContext context;
+        final List<Similarity.SimWeight> weights;
+        double bound = 0.0;
+
+        PostingsEnum postings;
+        Similarity.SimScorer[] scorers;
+
+        Cursor(Term term, TermContext context) {
+            this(term, context, new ArrayList<>());
+        }
+
+        private Cursor(Term term, TermContext context, List<Similarity.SimWeight> weights) {
+            this.term = term;
+            this.context = context;
+            this.weights = weights;
+        }
+
+        // Same term, weights and bound, but its own postings (for another thread)
+        Cursor copy() {
+            Cursor copy = new Cursor(term, context, weights);
+            copy.bound = bound;
+            return copy;
+        }
+
+        boolean open(LeafReaderContext leaf, Similarity similarity) throws IOException {
+            postings = MultiSimilarityScorer.openPostings(leaf, term, context);
+            if (postings == null) {
+                return false;
+            }
+            scorers = new Similarity.SimScorer[weights.size()];
+            for (int i = 0; i < scorers.length; i++) {
+                scorers[i] = similarity.simScorer(weights.get(i), leaf);
+            }
+            return true;
+        }
+
+        double score(int doc) throws IOException {
+            int freq = postings.freq();
+            double score = 0.0;
+            for (Similarity.SimScorer scorer : scorers) {
+                score += scorer.score(doc, freq);
+            }
+            return score;
+        }
+    }
+}
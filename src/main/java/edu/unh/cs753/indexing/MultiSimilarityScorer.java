@@ -0,0 +1,206 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores one query under several similarities (weighting schemes) while walking each term's postings only once.
+ *
+ * Every method gets its own query (e.g. lnc.ltn and anc.apc weight the same terms differently), but they are all
+ * built from the same text, so they share their terms. For every segment, the postings of each distinct term are
+ * decoded once, documents are visited in doc id order, and each method adds up its own clause scores (using the
+ * method's own Lucene SimScorer, so per-term scores are the same as a regular search) into its own top-k heap.
+ */
+public class MultiSimilarityScorer {
+    private final IndexSearcher searcher;
+    private final Similarity[] similarities;
+    private final int topK;
+
+    public MultiSimilarityScorer(IndexSearcher searcher, List<Similarity> similarities, int topK) {
+        this.searcher = searcher;
+        this.similarities = similarities.toArray(new Similarity[0]);
+        this.topK = topK;
+    }
+
+    public int methodCount() {
+        return similarities.length;
+    }
+
+    public Similarity getSimilarity(int method) {
+        return similarities[method];
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * Function: search
+     * Desc: Runs one query per method in a single traversal of the postings.
+     * @param queries: queries.get(m) is the query for the m-th similarity. Each must be a disjunction of
+     *                 (boosted) term queries, like the ones built by KotlinEvaluationUtils.
+     * @return One TopDocs per method, in the same order as the similarities
+     */
+    public TopDocs[] search(List<Query> queries) throws IOException {
+        int nMethods = similarities.length;
+        if (queries.size() != nMethods) {
+            throw new IllegalArgumentException("Expected " + nMethods + " queries but got " + queries.size());
+        }
+
+        // Gather the distinct terms over all methods' queries
+        QueryTerms[] clauses = new QueryTerms[nMethods];
+        Map<Term, Integer> termIndex = new LinkedHashMap<>();
+        for (int m = 0; m < nMethods; m++) {
+            clauses[m] = QueryTerms.extract(queries.get(m));
+            for (Term term : clauses[m].terms) {
+                termIndex.putIfAbsent(term, termIndex.size());
+            }
+        }
+        Term[] terms = termIndex.keySet().toArray(new Term[0]);
+
+        // Statistics are computed once per term, weights once per (method, clause)
+        TermContext[] contexts = new TermContext[terms.length];
+        TermStatistics[] termStats = new TermStatistics[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            contexts[t] = TermContext.build(searcher.getTopReaderContext(), terms[t]);
+            termStats[t] = searcher.termStatistics(terms[t], contexts[t]);
+        }
+
+        // For each distinct term, which (method, clause) pairs score it
+        List<List<int[]>> clausesByTerm = new ArrayList<>();
+        for (int t = 0; t < terms.length; t++) {
+            clausesByTerm.add(new ArrayList<>());
+        }
+        Similarity.SimWeight[][] weights = new Similarity.SimWeight[nMethods][];
+        for (int m = 0; m < nMethods; m++) {
+            weights[m] = new Similarity.SimWeight[clauses[m].size()];
+            for (int c = 0; c < clauses[m].size(); c++) {
+                int t = termIndex.get(clauses[m].terms[c]);
+                if (contexts[t].docFreq() == 0) {
+                    continue;
+                }
+                CollectionStatistics collectionStats = searcher.collectionStatistics(terms[t].field());
+                weights[m][c] = similarities[m].computeWeight(clauses[m].boosts[c], collectionStats, termStats[t]);
+                clausesByTerm.get(t).add(new int[] { m, c });
+            }
+        }
+
+        HitHeap[] heaps = new HitHeap[nMethods];
+        long[] totalHits = new long[nMethods];
+        for (int m = 0; m < nMethods; m++) {
+            heaps[m] = new HitHeap(topK);
+        }
+
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            scoreLeaf(leaf, terms, contexts, clausesByTerm, weights, heaps, totalHits);
+        }
+
+        TopDocs[] results = new TopDocs[nMethods];
+        for (int m = 0; m < nMethods; m++) {
+            results[m] = heaps[m].toTopDocs(totalHits[m]);
+        }
+        return results;
+    }
+
+    private void scoreLeaf(LeafReaderContext leaf, Term[] terms, TermContext[] contexts,
+                           List<List<int[]>> clausesByTerm, Similarity.SimWeight[][] weights,
+                           HitHeap[] heaps, long[] totalHits) throws IOException {
+        int nMethods = similarities.length;
+        PostingsEnum[] postings = new PostingsEnum[terms.length];
+        Similarity.SimScorer[][] scorers = new Similarity.SimScorer[nMethods][];
+        for (int m = 0; m < nMethods; m++) {
+            scorers[m] = new Similarity.SimScorer[weights[m].length];
+        }
+
+        boolean anyPostings = false;
+        for (int t = 0; t < terms.length; t++) {
+            postings[t] = openPostings(leaf, terms[t], contexts[t]);
+            if (postings[t] == null) {
+                continue;
+            }
+            anyPostings = true;
+            postings[t].nextDoc();
+            for (int[] mc : clausesByTerm.get(t)) {
+                scorers[mc[0]][mc[1]] = similarities[mc[0]].simScorer(weights[mc[0]][mc[1]], leaf);
+            }
+        }
+        if (!anyPostings) {
+            return;
+        }
+
+        Bits liveDocs = leaf.reader().getLiveDocs();
+        double[] scores = new double[nMethods];
+        boolean[] matched = new boolean[nMethods];
+
+        for (int doc = minDoc(postings); doc != DocIdSetIterator.NO_MORE_DOCS; doc = minDoc(postings)) {
+            boolean live = liveDocs == null || liveDocs.get(doc);
+            for (int t = 0; t < terms.length; t++) {
+                PostingsEnum pe = postings[t];
+                if (pe == null || pe.docID() != doc) {
+                    continue;
+                }
+                if (live) {
+                    int freq = pe.freq();
+                    for (int[] mc : clausesByTerm.get(t)) {
+                        scores[mc[0]] += scorers[mc[0]][mc[1]].score(doc, freq);
+                        matched[mc[0]] = true;
+                    }
+                }
+                pe.nextDoc();
+            }
+
+            for (int m = 0; m < nMethods; m++) {
+                if (matched[m]) {
+                    totalHits[m]++;
+                    heaps[m].offer(leaf.docBase + doc, (float) scores[m]);
+                    matched[m] = false;
+                }
+                scores[m] = 0.0;
+            }
+        }
+    }
+
+    static PostingsEnum openPostings(LeafReaderContext leaf, Term term, TermContext context)
+            throws IOException {
+        TermState state = context.get(leaf.ord);
+        if (state == null) {
+            return null;
+        }
+        Terms fieldTerms = leaf.reader().terms(term.field());
+        if (fieldTerms == null) {
+            return null;
+        }
+        TermsEnum termsEnum = fieldTerms.iterator();
+        termsEnum.seekExact(term.bytes(), state);
+        return termsEnum.postings(null, PostingsEnum.FREQS);
+    }
+
+    private static int minDoc(PostingsEnum[] postings) {
+        int min = DocIdSetIterator.NO_MORE_DOCS;
+        for (PostingsEnum pe : postings) {
+            if (pe != null && pe.docID() < min) {
+                min = pe.docID();
+            }
+        }
+        return min;
+    }
+}
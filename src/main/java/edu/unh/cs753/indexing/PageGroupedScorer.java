@@ -0,0 +1,304 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores a page's page-name query and all of its section queries as a group.
+ *
+ * Every section query is the page name followed by headings, so the page-name clauses are scored once into a
+ * per-page accumulator (doc -> summed score), and each section only adds the contributions of its heading clauses.
+ * Per-clause contributions are also kept for the whole page, keyed on (term, boost), so a heading shared by
+ * several sections (e.g. a parent heading) is scored once too.
+ *
+ * Some weighting schemes change the page-name weights when headings are appended (anc.apc normalizes over the
+ * whole query, and lnc.ltn does when a heading repeats a page-name term). When a section query doesn't start with
+ * exactly the page-name clauses, it is summed from the cached per-clause contributions instead.
+ *
+ * Only clauses on terms with at most MAX_CACHED_DOC_FREQ documents are kept in memory. A common term (which can
+ * have millions of postings) is re-read from its postings every time a query of the page uses it, so memory per
+ * page in flight stays bounded.
+ *
+ * Per-clause scores come from the similarity's own SimScorer and are summed in double precision before the float
+ * cast, as Lucene's BooleanScorer does, so the rankings are the same as searching each query separately.
+ */
+public class PageGroupedScorer {
+    // Clauses on terms in more documents than this are streamed from the postings instead of kept in memory
+    static final int MAX_CACHED_DOC_FREQ = 1 << 16;
+
+    private final IndexSearcher searcher;
+    private final Similarity similarity;
+    private final int topK;
+
+    public PageGroupedScorer(IndexSearcher searcher, Similarity similarity, int topK) {
+        this.searcher = searcher;
+        this.similarity = similarity;
+        this.topK = topK;
+    }
+
+    public Similarity getSimilarity() {
+        return similarity;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * Function: search
+     * Desc: Scores a page-name query and the page's section queries.
+     * @param pageQuery: Query built from the page name.
+     * @param sectionQueries: Queries built from the page name followed by section headings.
+     * @return TopDocs for the page query, followed by the TopDocs of each section query (in order)
+     */
+    public TopDocs[] search(Query pageQuery, List<Query> sectionQueries) throws IOException {
+        Map<String, Contribution> contributions = new HashMap<>();
+        QueryTerms pageTerms = QueryTerms.extract(pageQuery);
+
+        List<Contribution> pageClauses = new ArrayList<>();
+        boolean allCached = true;
+        for (int c = 0; c < pageTerms.size(); c++) {
+            Contribution clause = getContribution(pageTerms.terms[c], pageTerms.boosts[c], contributions);
+            pageClauses.add(clause);
+            allCached &= clause instanceof CachedContribution;
+        }
+
+        // Summed once for every section, unless a clause is streamed. Scores are added up left to right either way,
+        // so both give the same doubles.
+        List<Contribution> pageParts = allCached && pageClauses.size() > 1
+                ? Collections.singletonList(CachedContribution.sum(pageClauses))
+                : pageClauses;
+
+        TopDocs[] results = new TopDocs[sectionQueries.size() + 1];
+        results[0] = topDocs(pageParts, topK);
+
+        for (int s = 0; s < sectionQueries.size(); s++) {
+            QueryTerms sectionTerms = QueryTerms.extract(sectionQueries.get(s));
+            List<Contribution> parts = new ArrayList<>();
+            int firstClause = 0;
+            if (startsWith(sectionTerms, pageTerms)) {
+                parts.addAll(pageParts);
+                firstClause = pageTerms.size();
+            }
+            for (int c = firstClause; c < sectionTerms.size(); c++) {
+                parts.add(getContribution(sectionTerms.terms[c], sectionTerms.boosts[c], contributions));
+            }
+            results[s + 1] = topDocs(parts, topK);
+        }
+        return results;
+    }
+
+    // True if the query's first clauses are exactly the prefix's clauses (same terms, same boosts)
+    private static boolean startsWith(QueryTerms query, QueryTerms prefix) {
+        if (query.size() < prefix.size()) {
+            return false;
+        }
+        for (int c = 0; c < prefix.size(); c++) {
+            if (!query.terms[c].equals(prefix.terms[c])
+                    || Float.floatToIntBits(query.boosts[c]) != Float.floatToIntBits(prefix.boosts[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Contribution getContribution(Term term, float boost, Map<String, Contribution> contributions)
+            throws IOException {
+        String key = term.field() + ":" + term.text() + "^" + Float.floatToIntBits(boost);
+        Contribution contribution = contributions.get(key);
+        if (contribution == null) {
+            contribution = scoreClause(term, boost);
+            contributions.put(key, contribution);
+        }
+        return contribution;
+    }
+
+    // Rare terms are scored once into memory; common ones are scored again each time they're used
+    private Contribution scoreClause(Term term, float boost) throws IOException {
+        TermContext context = TermContext.build(searcher.getTopReaderContext(), term);
+        if (context.docFreq() == 0) {
+            return new CachedContribution(new int[0], new double[0], 0);
+        }
+        Similarity.SimWeight weight = similarity.computeWeight(boost,
+                searcher.collectionStatistics(term.field()), searcher.termStatistics(term, context));
+        Contribution streamed = new StreamedContribution(term, context, weight);
+        return context.docFreq() > MAX_CACHED_DOC_FREQ
+                ? streamed
+                : CachedContribution.sum(Collections.singletonList(streamed));
+    }
+
+    // Merges the parts and keeps the top k documents
+    private static TopDocs topDocs(List<Contribution> parts, int k) throws IOException {
+        HitHeap heap = new HitHeap(k);
+        long[] count = new long[1];
+        merge(parts, (doc, score) -> {
+            heap.offer(doc, (float) score);
+            count[0]++;
+        });
+        return heap.toTopDocs(count[0]);
+    }
+
+    private interface DocScoreConsumer {
+        void accept(int doc, double score);
+    }
+
+    // Walks the parts in doc id order, adding up the scores of documents that appear in more than one
+    private static void merge(List<Contribution> parts, DocScoreConsumer consumer) throws IOException {
+        Cursor[] cursors = new Cursor[parts.size()];
+        for (int p = 0; p < cursors.length; p++) {
+            cursors[p] = parts.get(p).cursor();
+            cursors[p].next();
+        }
+
+        while (true) {
+            int doc = DocIdSetIterator.NO_MORE_DOCS;
+            for (Cursor cursor : cursors) {
+                doc = Math.min(doc, cursor.doc);
+            }
+            if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                return;
+            }
+
+            double score = 0.0;
+            for (Cursor cursor : cursors) {
+                if (cursor.doc == doc) {
+                    score += cursor.score;
+                    cursor.next();
+                }
+            }
+            consumer.accept(doc, score);
+        }
+    }
+
+    /**
+     * Position in a contribution: the current document (global id, NO_MORE_DOCS once exhausted) and its score.
+     */
+    private abstract static class Cursor {
+        int doc = -1;
+        double score;
+
+        abstract void next() throws IOException;
+    }
+
+    /**
+     * Documents (in increasing global doc id order) and their partial scores.
+     */
+    private abstract static class Contribution {
+        abstract Cursor cursor() throws IOException;
+    }
+
+    private static class CachedContribution extends Contribution {
+        final int[] docs;
+        final double[] scores;
+        final int size;
+
+        CachedContribution(int[] docs, double[] scores, int size) {
+            this.docs = docs;
+            this.scores = scores;
+            this.size = size;
+        }
+
+        // Merges several contributions into memory
+        static CachedContribution sum(List<Contribution> parts) throws IOException {
+            int[][] docs = { new int[1024] };
+            double[][] scores = { new double[1024] };
+            int[] size = new int[1];
+            merge(parts, (doc, score) -> {
+                if (size[0] == docs[0].length) {
+                    docs[0] = ArrayUtil.grow(docs[0], size[0] + 1);
+                    scores[0] = ArrayUtil.grow(scores[0], size[0] + 1);
+                }
+                docs[0][size[0]] = doc;
+                scores[0][size[0]] = score;
+                size[0]++;
+            });
+            return new CachedContribution(docs[0], scores[0], size[0]);
+        }
+
+        @Override
+        Cursor cursor() {
+            return new Cursor() {
+                int i = -1;
+
+                @Override
+                void next() {
+                    if (++i < size) {
+                        doc = docs[i];
+                        score = scores[i];
+                    } else {
+                        doc = DocIdSetIterator.NO_MORE_DOCS;
+                    }
+                }
+            };
+        }
+    }
+
+    // Walks a term's postings and scores every (live) document that contains it, each time a cursor is opened
+    private class StreamedContribution extends Contribution {
+        final Term term;
+        final TermContext context;
+        final Similarity.SimWeight weight;
+
+        StreamedContribution(Term term, TermContext context, Similarity.SimWeight weight) {
+            this.term = term;
+            this.context = context;
+            this.weight = weight;
+        }
+
+        @Override
+        Cursor cursor() {
+            List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+            return new Cursor() {
+                int leaf = -1;
+                PostingsEnum postings = null;
+                Similarity.SimScorer scorer;
+                Bits liveDocs;
+                int docBase;
+
+                @Override
+                void next() throws IOException {
+                    while (true) {
+                        if (postings != null) {
+                            int d;
+                            while ((d = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                                if (liveDocs == null || liveDocs.get(d)) {
+                                    doc = docBase + d;
+                                    score = scorer.score(d, postings.freq());
+                                    return;
+                                }
+                            }
+                            postings = null;
+                        }
+                        if (++leaf == leaves.size()) {
+                            doc = DocIdSetIterator.NO_MORE_DOCS;
+                            return;
+                        }
+                        LeafReaderContext context = leaves.get(leaf);
+                        postings = MultiSimilarityScorer.openPostings(context, term, StreamedContribution.this.context);
+                        if (postings != null) {
+                            scorer = similarity.simScorer(weight, context);
+                            liveDocs = context.reader().getLiveDocs();
+                            docBase = context.docBase;
+                        }
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of search results for one index reader, in front of LuceneSearcher's searches (per query,
+ * per grouped page query and per single-pass method alike, so the search paths share entries).
+ *
+ * The section run repeats every page-name query of the page run, and generic headings ("History", "See also")
+ * build the same query on many pages, so a lot of searches are repeats. Entries are keyed on the similarity,
+ * the analyzed query (its terms and boosts, in clause order) and k.
+ *
+ * Eviction is LRU with a TinyLFU admission filter: once the cache is full, a new entry only replaces the least
+ * recently used one if its query has been asked for more often (as estimated by a small count-min sketch). That
+ * keeps one-off section queries from flushing out the queries that keep coming back.
+ *
+ * Cached results are only valid for the reader they were computed on, so a reopened index needs a new cache.
+ */
+public class QueryResultCache {
+    private final int maxSize;
+    private final LinkedHashMap<Key, SearchResults> entries;
+    private final FrequencySketch sketch;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public QueryResultCache(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(this.maxSize);
+    }
+
+    /**
+     * Function: key
+     * Desc: Builds the cache key of a search. Queries made of (boosted) term clauses are keyed on their clauses,
+     *       anything else on the query itself.
+     * @param similarity: Similarity the query is scored with (compared by identity).
+     * @param query: The (already analyzed) query.
+     * @param k: Number of results asked for.
+     */
+    public static Key key(Similarity similarity, Query query, int k) {
+        Object normalized;
+        try {
+            QueryTerms clauses = QueryTerms.extract(query);
+            StringBuilder sb = new StringBuilder();
+            for (int c = 0; c < clauses.size(); c++) {
+                sb.append(clauses.terms[c].field()).append(':').append(clauses.terms[c].text())
+                  .append('^').append(Float.floatToIntBits(clauses.boosts[c])).append(' ');
+            }
+            normalized = sb.toString();
+        } catch (IllegalArgumentException e) {
+            normalized = query;
+        }
+        return new Key(similarity, normalized, k);
+    }
+
+    /**
+     * Function: get
+     * Desc: Returns the cached results for a key, or null (and counts the request towards its frequency).
+     */
+    public synchronized SearchResults get(Key key) {
+        sketch.increment(key.hashCode());
+        SearchResults results = entries.get(key);
+        if (results == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return results;
+    }
+
+    /**
+     * Function: put
+     * Desc: Adds results to the cache, evicting the least recently used entry if the new one is asked for more often.
+     */
+    public synchronized void put(Key key, SearchResults results) {
+        if (entries.containsKey(key)) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            Iterator<Map.Entry<Key, SearchResults>> eldest = entries.entrySet().iterator();
+            Key victim = eldest.next().getKey();
+            if (sketch.frequency(key.hashCode()) <= sketch.frequency(victim.hashCode())) {
+                rejections.increment();
+                return;
+            }
+            eldest.remove();
+            evictions.increment();
+        }
+        entries.put(key, results);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format(
+                "Result cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d rejected, %d entries",
+                h, m, 100.0 * h / Math.max(1, h + m), getEvictions(), getRejections(), size());
+    }
+
+    /**
+     * Cache key: similarity (by identity), normalized query and k.
+     */
+    public static class Key {
+        private final Similarity similarity;
+        private final Object query;
+        private final int k;
+        private final int hash;
+
+        private Key(Similarity similarity, Object query, int k) {
+            this.similarity = similarity;
+            this.query = query;
+            this.k = k;
+            this.hash = 31 * (31 * System.identityHashCode(similarity) + query.hashCode()) + k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return similarity == other.similarity && k == other.k && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters (4 rows) estimating how often each key has been asked for. Counters are
+     * halved every 10 * maxSize increments, so the estimates follow recent popularity.
+     */
+    private static class FrequencySketch {
+        private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+        private final byte[][] rows = new byte[SEEDS.length][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int maxSize) {
+            int width = Integer.highestOneBit(Math.max(16, Math.min(maxSize, 1 << 26) * 2 - 1)) << 1;
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = new byte[width];
+            }
+            mask = width - 1;
+            sampleSize = 10 * maxSize;
+        }
+
+        void increment(int hash) {
+            for (int r = 0; r < rows.length; r++) {
+                int i = index(hash, r);
+                if (rows[r][i] < 15) {
+                    rows[r][i]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash) {
+            int min = Integer.MAX_VALUE;
+            for (int r = 0; r < rows.length; r++) {
+                min = Math.min(min, rows[r][index(hash, r)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
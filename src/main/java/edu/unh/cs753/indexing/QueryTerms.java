@@ -0,0 +1,71 @@
+package edu.unh.cs753.indexing;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The clauses of a query built by the KotlinEvaluationUtils.query* functions: a disjunction of (possibly boosted)
+ * term queries. Each clause keeps its own entry, so a term that appears twice in a query appears twice here,
+ * just like it does in the BooleanQuery that Lucene would score.
+ */
+public class QueryTerms {
+    public final Term[] terms;
+    public final float[] boosts;
+
+    private QueryTerms(Term[] terms, float[] boosts) {
+        this.terms = terms;
+        this.boosts = boosts;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Function: extract
+     * Desc: Pulls the terms and boosts out of a query made of SHOULD clauses over TermQuery / BoostQuery(TermQuery).
+     * @param query: Query to take apart.
+     * @return The query's clauses, in order
+     * @throws IllegalArgumentException if the query has any other shape
+     */
+    public static QueryTerms extract(Query query) {
+        List<Term> terms = new ArrayList<>();
+        List<Float> boosts = new ArrayList<>();
+
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.getOccur() != BooleanClause.Occur.SHOULD) {
+                    throw new IllegalArgumentException("Only SHOULD clauses are supported: " + query);
+                }
+                addClause(clause.getQuery(), 1f, terms, boosts);
+            }
+        } else {
+            addClause(query, 1f, terms, boosts);
+        }
+
+        float[] boostArray = new float[boosts.size()];
+        for (int i = 0; i < boostArray.length; i++) {
+            boostArray[i] = boosts.get(i);
+        }
+        return new QueryTerms(terms.toArray(new Term[0]), boostArray);
+    }
+
+    private static void addClause(Query query, float boost, List<Term> terms, List<Float> boosts) {
+        if (query instanceof BoostQuery) {
+            BoostQuery boostQuery = (BoostQuery) query;
+            addClause(boostQuery.getQuery(), boost * boostQuery.getBoost(), terms, boosts);
+        } else if (query instanceof TermQuery) {
+            terms.add(((TermQuery) query).getTerm());
+            boosts.add(boost);
+        } else {
+            throw new IllegalArgumentException("Only (boosted) term queries are supported: " + query);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package edu.unh.cs753.indexing;
+
+import edu.unh.cs753.utils.IndexUtils;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-term statistics that bound how much a term can contribute to a document's score under our tf-idf
+ * similarities (see BoundedSimilarity). They let MaxScoreScorer skip documents that can't make the top-k.
+ *
+ * Bounds for frequent terms are computed once at index time and stored in a "term_impacts" file in the index
+ * directory. Rare terms have short postings, so their bounds are computed (and cached) the first time a query
+ * uses them. The file records the commit it was computed for, and is ignored for any other commit (e.g. after an
+ * append that crashed before writing a new file), so a missing or stale file only costs time, never correctness.
+ */
+public class TermImpacts {
+    public static final String FILE_NAME = "term_impacts";
+    private static final String CODEC_NAME = "TermImpacts";
+    // Version 1 added the generation of the commit the bounds were computed for
+    private static final int VERSION = 1;
+
+    // Terms with fewer documents than this aren't stored; walking their postings at query time is cheap
+    private static final int MIN_DOC_FREQ = 64;
+
+    // Same norm decoding as Lucene's SimilarityBase, so document lengths match what the similarities see
+    static final float[] LENGTH_TABLE = new float[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            LENGTH_TABLE[i] = SmallFloat.byte4ToInt((byte) i);
+        }
+    }
+
+    /**
+     * Bounds for one term over every document that contains it.
+     */
+    public static class Impact {
+        // Shortest length (as decoded from the norm) of a document containing the term
+        public final float minDocLen;
+
+        // Largest lnc document weight of the term (see LncSimilarity)
+        public final float maxLncWeight;
+
+        public Impact(float minDocLen, float maxLncWeight) {
+            this.minDocLen = minDocLen;
+            this.maxLncWeight = maxLncWeight;
+        }
+    }
+
+    private static final Impact NO_DOCUMENTS = new Impact(Float.POSITIVE_INFINITY, 0f);
+
+    private final IndexReader reader;
+    private final Map<Term, Impact> impacts;
+
+    private TermImpacts(IndexReader reader, Map<Term, Impact> impacts) {
+        this.reader = reader;
+        this.impacts = impacts;
+    }
+
+    /**
+     * Function: get
+     * Desc: Returns the bounds of a term, computing them from the postings if they weren't stored.
+     */
+    public Impact get(Term term) {
+        Impact impact = impacts.get(term);
+        if (impact == null) {
+            try {
+                impact = computeImpact(reader.leaves(), term);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            impacts.put(term, impact);
+        }
+        return impact;
+    }
+
+    /**
+     * Function: load
+     * Desc: Loads the stored bounds of an index (all shards of a sharded index) for use with the given reader.
+     *       Each shard only stores the terms that are frequent in that shard, so a term's stored bounds are only
+     *       used if every shard stored it (taking the loosest bound). Any other term is computed over the reader.
+     * @param indexLoc: Location of the Lucene index directory.
+     * @param reader: Reader over that index, used for terms that don't have stored bounds.
+     * @return TermImpacts (empty, and computed lazily, if nothing was stored)
+     */
+    public static TermImpacts load(String indexLoc, IndexReader reader) {
+        Map<Term, Impact> impacts = new ConcurrentHashMap<>();
+        try {
+            List<String> locations = IndexUtils.listShardLocations(indexLoc);
+            if (locations.isEmpty()) {
+                locations = new ArrayList<>();
+                locations.add(indexLoc);
+            }
+            for (int i = 0; i < locations.size(); i++) {
+                try (Directory dir = FSDirectory.open(Paths.get(locations.get(i)))) {
+                    Map<Term, Impact> shardImpacts = new HashMap<>();
+                    if (!Arrays.asList(dir.listAll()).contains(FILE_NAME)
+                            || !read(dir, commitGeneration(dir, reader, locations.size()), shardImpacts)) {
+                        // Bounds for a term are only valid if they cover every shard
+                        impacts.clear();
+                        break;
+                    }
+                    if (i == 0) {
+                        impacts.putAll(shardImpacts);
+                    } else {
+                        impacts.keySet().retainAll(shardImpacts.keySet());
+                        for (Map.Entry<Term, Impact> entry : impacts.entrySet()) {
+                            Impact a = entry.getValue();
+                            Impact b = shardImpacts.get(entry.getKey());
+                            entry.setValue(new Impact(Math.min(a.minDocLen, b.minDocLen),
+                                    Math.max(a.maxLncWeight, b.maxLncWeight)));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            impacts.clear();
+        }
+        return new TermImpacts(reader, impacts);
+    }
+
+    /**
+     * Function: computeLazily
+     * Desc: Ignores any stored bounds and computes each term's bounds from the reader the first time it's used.
+     *       Use this for a reader that may hold documents added after the "term_impacts" file was written.
+     */
+    public static TermImpacts computeLazily(IndexReader reader) {
+        return new TermImpacts(reader, new ConcurrentHashMap<>());
+    }
+
+    // Generation of the commit the reader sees in dir (the latest commit, for a shard of a sharded index)
+    private static long commitGeneration(Directory dir, IndexReader reader, int nLocations) throws IOException {
+        if (nLocations == 1 && reader instanceof DirectoryReader) {
+            return ((DirectoryReader) reader).getIndexCommit().getGeneration();
+        }
+        return SegmentInfos.readLatestCommit(dir).getGeneration();
+    }
+
+    // Reads the stored bounds, or returns false (reading nothing) if they were computed for a different commit
+    private static boolean read(Directory dir, long generation, Map<Term, Impact> impacts) throws IOException {
+        try (ChecksumIndexInput in = dir.openChecksumInput(FILE_NAME, IOContext.READONCE)) {
+            int version = CodecUtil.checkHeader(in, CODEC_NAME, 0, VERSION);
+            if (version < 1 || in.readLong() != generation) {
+                System.out.println(FILE_NAME + " in " + dir + " doesn't match the index's commit; bounds will be "
+                        + "computed as needed");
+                return false;
+            }
+            String field = in.readString();
+            int count = in.readVInt();
+            for (int i = 0; i < count; i++) {
+                Term term = new Term(field, in.readString());
+                impacts.put(term, new Impact(Float.intBitsToFloat(in.readInt()), Float.intBitsToFloat(in.readInt())));
+            }
+            CodecUtil.checkFooter(in);
+        }
+        return true;
+    }
+
+    /**
+     * Function: write
+     * Desc: Computes the bounds of every frequent term in a field and stores them in the index directory,
+     *       replacing any earlier file. Run this after the index has been committed; the bounds are only used
+     *       with that commit.
+     * @param dir: Index directory.
+     * @param field: Field the bounds are computed for.
+     */
+    public static void write(Directory dir, String field) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            if (Arrays.asList(dir.listAll()).contains(FILE_NAME)) {
+                dir.deleteFile(FILE_NAME);
+            }
+
+            List<Term> terms = new ArrayList<>();
+            List<Impact> impacts = new ArrayList<>();
+            Terms fieldTerms = MultiFields.getTerms(reader, field);
+            if (fieldTerms != null) {
+                TermsEnum termsEnum = fieldTerms.iterator();
+                for (BytesRef bytes = termsEnum.next(); bytes != null; bytes = termsEnum.next()) {
+                    if (termsEnum.docFreq() < MIN_DOC_FREQ) {
+                        continue;
+                    }
+                    Term term = new Term(field, BytesRef.deepCopyOf(bytes));
+                    terms.add(term);
+                    impacts.add(computeImpact(reader.leaves(), term));
+                }
+            }
+
+            try (IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT)) {
+                CodecUtil.writeHeader(out, CODEC_NAME, VERSION);
+                out.writeLong(reader.getIndexCommit().getGeneration());
+                out.writeString(field);
+                out.writeVInt(terms.size());
+                for (int i = 0; i < terms.size(); i++) {
+                    out.writeString(terms.get(i).text());
+                    out.writeInt(Float.floatToIntBits(impacts.get(i).minDocLen));
+                    out.writeInt(Float.floatToIntBits(impacts.get(i).maxLncWeight));
+                }
+                CodecUtil.writeFooter(out);
+            }
+        }
+    }
+
+    // Walks a term's postings (and the field's norms) in every segment
+    private static Impact computeImpact(List<LeafReaderContext> leaves, Term term) throws IOException {
+        float minDocLen = Float.POSITIVE_INFINITY;
+        double maxLncWeight = 0.0;
+        boolean found = false;
+
+        for (LeafReaderContext leaf : leaves) {
+            Terms fieldTerms = leaf.reader().terms(term.field());
+            if (fieldTerms == null) {
+                continue;
+            }
+            TermsEnum termsEnum = fieldTerms.iterator();
+            if (!termsEnum.seekExact(term.bytes())) {
+                continue;
+            }
+
+            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.FREQS);
+            NumericDocValues norms = leaf.reader().getNormValues(term.field());
+            LncSimilarity.DocumentWeights lncWeights =
+                    LncSimilarity.DocumentWeights.forLeaf(leaf.reader(), term.field());
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                float docLen = 1f;
+                if (norms != null) {
+                    docLen = norms.advanceExact(doc) ? LENGTH_TABLE[Byte.toUnsignedInt((byte) norms.longValue())] : 0f;
+                }
+                double lncWeight = lncWeights.get(doc, postings.freq());
+
+                found = true;
+                minDocLen = Math.min(minDocLen, docLen);
+                maxLncWeight = Math.max(maxLncWeight, lncWeight);
+            }
+        }
+
+        // Round up, so the stored float never falls below the true bound
+        return found ? new Impact(minDocLen, Math.nextUp((float) maxLncWeight)) : NO_DOCUMENTS;
+    }
+}
@@ -0,0 +1,17 @@
+package edu.unh.cs753.indexing;
+
+/**
+ * A similarity that can bound the score of a term from the term's index-time statistics (see TermImpacts).
+ * MaxScoreScorer uses these bounds to skip documents that can't enter the top-k.
+ */
+public interface TermScoreBound {
+
+    /**
+     * Function: maxScore
+     * Desc: Upper bound on the score (with a boost of 1) of any document that contains the term. Scores scale
+     *       linearly with the boost.
+     * @param impact: Index-time statistics of the term.
+     * @return Upper bound on the term's unboosted score
+     */
+    double maxScore(TermImpacts.Impact impact);
+}
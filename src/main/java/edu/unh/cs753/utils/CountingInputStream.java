@@ -0,0 +1,59 @@
+package edu.unh.cs753.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that keeps track of how many bytes have been read through it.
+ * Used to record how far into a .cbor file the decoder has gotten, so indexing can resume from there.
+ */
+public class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    /**
+     * @param in: Stream to wrap.
+     * @param startOffset: Byte offset the stream is already positioned at (counting continues from here).
+     */
+    public CountingInputStream(InputStream in, long startOffset) {
+        super(in);
+        count = startOffset;
+    }
+
+    /**
+     * @return Byte offset (from the start of the file) of the next byte that will be read.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -1,6 +1,10 @@
 package edu.unh.cs753.utils;
 
 
+import edu.unh.cs753.evaluation.BinaryRunFile;
+import edu.unh.cs753.evaluation.IntIntMap;
+import edu.unh.cs753.evaluation.Qrels;
+import edu.unh.cs753.evaluation.Run;
 import utils.KotlinEvaluationUtils;
 
 import java.io.*;
@@ -38,6 +42,17 @@ public class EvaluationUtils {
 
     public static HashMap<String, HashMap<String, Integer>> parseRunFile(File f) throws IOException {
         HashMap<String, HashMap<String, Integer>> m = new HashMap<>();
+        if (BinaryRunFile.isBinary(f.getPath())) {
+            BinaryRunFile run = BinaryRunFile.open(f.getPath());
+            for (int q = 0; q < run.getQueryCount(); q++) {
+                HashMap<String, Integer> ranks = new HashMap<>();
+                for (int entry = run.getStart(q); entry < run.getEnd(q); entry++) {
+                    ranks.put(run.getParagraphId(run.getParagraph(entry)), run.getRank(entry));
+                }
+                m.put(run.getQueryId(q), ranks);
+            }
+            return m;
+        }
 
         FileReader fstream = new FileReader(f);
         BufferedReader in = new BufferedReader(fstream);
@@ -73,6 +88,17 @@ public class EvaluationUtils {
     public static HashMap<String, ArrayList<String>> ParseResults(String path) throws IOException {
         // Initialie hashmap
         HashMap<String, ArrayList<String>> m = new HashMap<>();
+        if (BinaryRunFile.isBinary(path)) {
+            BinaryRunFile run = BinaryRunFile.open(path);
+            for (int q = 0; q < run.getQueryCount(); q++) {
+                ArrayList<String> ids = new ArrayList<>();
+                for (int entry = run.getStart(q); entry < run.getEnd(q); entry++) {
+                    ids.add(run.getParagraphId(run.getParagraph(entry)));
+                }
+                m.put(run.getQueryId(q), ids);
+            }
+            return m;
+        }
 
         FileReader fstream = new FileReader(path);
         BufferedReader in = new BufferedReader(fstream);
@@ -179,6 +205,73 @@ public class EvaluationUtils {
         return totalMap / numberOfQueries;
     }
 
+    // Qrels and runs have to come from the same EvaluationStore for their ids to mean the same thing
+    public static void checkSameStore(Qrels qrels, Run run) {
+        if (qrels.getIds() != run.getIds()) {
+            throw new IllegalArgumentException("Qrels and run " + run.getName() + " were loaded into different stores");
+        }
+    }
+
+    /**
+     * Function: getPrecisionAtR
+     * Desc: R-precision on an EvaluationStore's qrels and run (same result as the HashMap version).
+     */
+    public static double getPrecisionAtR(Qrels qrels, Run run) {
+        checkSameStore(qrels, run);
+        double totalPrecision = 0.0;
+
+        for (int q = 0; q < qrels.size(); q++) {
+            int index = run.indexOf(qrels.getQuery(q));
+            if (index < 0) {
+                continue;
+            }
+            IntIntMap relevantDocuments = qrels.getJudgments(q);
+            int[] retrievedDocuments = run.getParagraphs(index);
+            int r = relevantDocuments.size();
+
+            double hits = 0;
+            for (int i = 0; i < r && i < retrievedDocuments.length; i++) {
+                if (relevantDocuments.containsKey(retrievedDocuments[i])) {
+                    hits += 1.0;
+                }
+            }
+            totalPrecision += hits / r;
+        }
+
+        return totalPrecision / qrels.size();
+    }
+
+    /**
+     * Function: getMap
+     * Desc: Mean average precision on an EvaluationStore's qrels and run (same result as the HashMap version).
+     */
+    public static double getMap(Qrels qrels, Run run) {
+        checkSameStore(qrels, run);
+        double totalMap = 0.0;
+
+        for (int q = 0; q < qrels.size(); q++) {
+            int index = run.indexOf(qrels.getQuery(q));
+            if (index < 0) {
+                continue;
+            }
+            IntIntMap relevantDocuments = qrels.getJudgments(q);
+            int[] retrievedDocuments = run.getParagraphs(index);
+
+            double hits = 0;
+            double precisionSum = 0;
+            for (int i = 0; i < retrievedDocuments.length; i++) {
+                if (relevantDocuments.containsKey(retrievedDocuments[i])) {
+                    hits += 1.0;
+                    precisionSum += hits / (i + 1);
+                }
+            }
+            // Divided by the number of relevant documents, not the number retrieved
+            totalMap += precisionSum / relevantDocuments.size();
+        }
+
+        return totalMap / qrels.size();
+    }
+
     public static double calculateSpearman(List<Integer> rankings1 , List<Integer> rankings2, Double maxDiff) {
 
         double diff,ele1,ele2,sum=0.0;
@@ -199,6 +292,23 @@ public class EvaluationUtils {
         return  1.0 - (6.0*sum)/(rankings1.size() * (Math.pow(rankings1.size(),2)-1));
     }
 
+    /**
+     * Function: calculateSpearman
+     * Desc: Same as the List version, on the first n entries of two rank arrays.
+     */
+    public static double calculateSpearman(int[] rankings1, int[] rankings2, int n, double maxDiff) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            double diff = (double) (rankings1[i] - rankings2[i]) * (rankings1[i] - rankings2[i]);
+            if (rankings1[i] == -1 || rankings2[i] == -1) {
+                diff = maxDiff;
+            }
+            sum += diff;
+        }
+
+        return 1.0 - (6.0 * sum) / (n * (Math.pow(n, 2) - 1));
+    }
+
     public static void main(String [] args) throws IOException {
 
             /*String qrels = "/home/hcgs/data_science/data/test200/test200-train/train.pages.cbor-article.qrels";
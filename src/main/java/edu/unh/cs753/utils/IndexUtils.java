@@ -2,19 +2,32 @@ package edu.unh.cs753.utils;
 
 import edu.unh.cs.treccar_v2.Data;
 import edu.unh.cs.treccar_v2.read_data.DeserializeData;
+import edu.unh.cs753.indexing.IndexFinalizer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * This class contains static utility functions used for indexing.
  */
 public class IndexUtils {
+    // Written next to the shard directories of a sharded index; holds the number of shards
+    public static final String SHARDS_FILE = "shards";
 
     /**
      * Function: createParagraphIterator
@@ -33,6 +46,30 @@ public class IndexUtils {
         return DeserializeData.iterableParagraphs(inputStream);
     }
 
+    /**
+     * Function: createParagraphIterator
+     * Desc: Same as above, but reads paragraphs from an already opened stream (see openCborStream).
+     * @param inputStream: Stream positioned at the start of a paragraph.
+     * @return Iterator over Data.Paragraph
+     */
+    public static Iterable<Data.Paragraph> createParagraphIterator(InputStream inputStream) {
+        return DeserializeData.iterableParagraphs(inputStream);
+    }
+
+    /**
+     * Function: openCborStream
+     * Desc: Opens a .cbor file positioned at the given byte offset. The returned stream counts the bytes the
+     *       decoder consumes, which lets the caller record where each paragraph ends.
+     * @param cborLoc: Location of the cbor file to open.
+     * @param offset: Byte offset to start reading from (0 for the beginning of the file).
+     * @return CountingInputStream positioned at offset
+     */
+    public static CountingInputStream openCborStream(String cborLoc, long offset) throws IOException {
+        FileInputStream fileStream = new FileInputStream(cborLoc);
+        fileStream.getChannel().position(offset);
+        return new CountingInputStream(new BufferedInputStream(fileStream), offset);
+    }
+
     /**
      * Function: createPageIterator
      * Desc: Using TREC Tools, create an iterator over pages that have been read from an outlines .cbor file.
@@ -50,6 +87,17 @@ public class IndexUtils {
         return DeserializeData.iterableAnnotations(inputStream);
     }
 
+    /**
+     * Function: createPageIterator
+     * Desc: Same as above, but reads pages from an already opened stream. Pages are decoded one at a time as the
+     *       iterator advances, so the caller decides when the stream is closed.
+     * @param inputStream: Stream positioned at the start of an outlines .cbor file.
+     * @return Iterator over Data.Page
+     */
+    public static Iterable<Data.Page> createPageIterator(InputStream inputStream) {
+        return DeserializeData.iterableAnnotations(inputStream);
+    }
+
     /**
      * Function: createIndexWriter
      * Desc: Creates an IndexWriter that is responsible for writing new documents to a Lucene index directory.
@@ -62,15 +110,240 @@ public class IndexUtils {
      * @return IndexWriter that writes to the user-supplied directory
      */
     public static IndexWriter createIndexWriter(String indexLoc) {
+        return createIndexWriter(indexLoc, IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+    }
+
+    /**
+     * Function: createIndexWriter
+     * Desc: Same as above, but lets the caller choose how much RAM the writer buffers before it flushes a new
+     *       segment to disk. Larger buffers mean fewer (and bigger) segments.
+     * @param indexLoc: Location of where to create a new Lucene index directory.
+     * @param ramBufferMB: Size of the in-memory buffer (in MB) that triggers a flush when full.
+     * @return IndexWriter that writes to the user-supplied directory
+     */
+    public static IndexWriter createIndexWriter(String indexLoc, double ramBufferMB) {
+        return createIndexWriter(indexLoc, ramBufferMB, IndexWriterConfig.OpenMode.CREATE);
+    }
+
+    /**
+     * Function: createIndexWriter
+     * Desc: Same as above, but with a choice of OpenMode. Use CREATE_OR_APPEND to add to (or resume) an existing
+     *       index instead of overwriting it.
+     * @param indexLoc: Location of the Lucene index directory.
+     * @param ramBufferMB: Size of the in-memory buffer (in MB) that triggers a flush when full.
+     * @param openMode: Whether to overwrite (CREATE) or keep (APPEND / CREATE_OR_APPEND) an existing index.
+     * @return IndexWriter that writes to the user-supplied directory
+     */
+    public static IndexWriter createIndexWriter(String indexLoc, double ramBufferMB,
+                                                IndexWriterConfig.OpenMode openMode) {
         Path indexPath = Paths.get(indexLoc);
         try {
             FSDirectory indexDir = FSDirectory.open(indexPath);
             IndexWriterConfig conf = new IndexWriterConfig(new StandardAnalyzer());
-            conf.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            conf.setOpenMode(openMode);
+            conf.setRAMBufferSizeMB(ramBufferMB);
             return new IndexWriter(indexDir, conf);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
+
+    /**
+     * Function: openIndexDirectory
+     * Desc: Opens an index directory for searching. A finalized index (see IndexFinalizer) is opened with
+     *       memory-mapped files, which are loaded into memory up front if finalize was asked to preload them.
+     * @param indexLoc: Location of the Lucene index directory (a single shard of a sharded index).
+     * @return Directory to open readers on
+     */
+    public static Directory openIndexDirectory(String indexLoc) throws IOException {
+        Path indexPath = Paths.get(indexLoc);
+        FSDirectory dir = FSDirectory.open(indexPath);
+        if (!DirectoryReader.indexExists(dir)) {
+            return dir;
+        }
+        Map<String, String> userData = IndexFinalizer.readUserData(dir);
+        if (!IndexFinalizer.isFinalized(userData)) {
+            return dir;
+        }
+        dir.close();
+        MMapDirectory mmapDir = new MMapDirectory(indexPath);
+        mmapDir.setPreload(Boolean.parseBoolean(userData.get(IndexFinalizer.PRELOAD_KEY)));
+        return mmapDir;
+    }
+
+    /**
+     * Function: shardLocation
+     * Desc: Returns the directory that holds one shard of a sharded index.
+     * @param indexLoc: Location of the (sharded) Lucene index directory.
+     * @param shard: Shard number, starting at 0.
+     * @return Path of the shard's index directory
+     */
+    public static String shardLocation(String indexLoc, int shard) {
+        return Paths.get(indexLoc, "shard-" + shard).toString();
+    }
+
+    /**
+     * Function: listShardLocations
+     * Desc: Lists the shard directories of a sharded index, in shard order: exactly the shards the index was
+     *       built with, as recorded in its "shards" file. An index whose directories don't match that (missing
+     *       shards, shard directories without the file, or an unsharded index next to them) is refused.
+     * @param indexLoc: Location of the Lucene index directory.
+     * @return Shard directories, or an empty list if the index isn't sharded.
+     */
+    public static List<String> listShardLocations(String indexLoc) throws IOException {
+        int nShards = readShardCount(indexLoc);
+        if (nShards == 0) {
+            if (!findShardNumbers(indexLoc).isEmpty()) {
+                throw new IOException(indexLoc + " has shard directories but no " + SHARDS_FILE
+                        + " file, so its number of shards is unknown. Rebuild the index.");
+            }
+            return new ArrayList<>();
+        }
+        if (hasUnshardedIndex(indexLoc)) {
+            throw new IOException(indexLoc + " holds an unsharded index next to its " + nShards
+                    + " shards. Rebuild the index.");
+        }
+
+        List<String> shards = new ArrayList<>();
+        for (int shard = 0; shard < nShards; shard++) {
+            if (!new File(shardLocation(indexLoc, shard)).isDirectory()) {
+                throw new IOException("Shard " + shard + " of the " + nShards + " shards of " + indexLoc
+                        + " is missing");
+            }
+            shards.add(shardLocation(indexLoc, shard));
+        }
+        return shards;
+    }
+
+    /**
+     * Function: readShardCount
+     * Desc: Reads the number of shards a sharded index was built with.
+     * @param indexLoc: Location of the Lucene index directory.
+     * @return Number of shards, or 0 if the index isn't sharded (has no "shards" file)
+     */
+    public static int readShardCount(String indexLoc) throws IOException {
+        Path file = Paths.get(indexLoc, SHARDS_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        return Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Function: prepareShardLayout
+     * Desc: Gets an index directory ready for a build with nShards shards (1 for an unsharded index).
+     *       A CREATE build replaces the whole index, so it deletes the shard directories it won't rewrite and
+     *       records the new shard count. Other builds add to the index, and are refused (see checkShardCount)
+     *       unless the index has the same number of shards.
+     * @param indexLoc: Location of the Lucene index directory.
+     * @param nShards: Number of shards the build writes.
+     * @param openMode: OpenMode of the build's writers.
+     */
+    public static void prepareShardLayout(String indexLoc, int nShards, IndexWriterConfig.OpenMode openMode)
+            throws IOException {
+        if (openMode != IndexWriterConfig.OpenMode.CREATE) {
+            checkShardCount(indexLoc, nShards);
+            return;
+        }
+        if (nShards > 1 && hasUnshardedIndex(indexLoc)) {
+            throw new IOException(indexLoc + " holds an unsharded index. Remove it before building a sharded index "
+                    + "in its place.");
+        }
+        for (int shard : findShardNumbers(indexLoc)) {
+            if (nShards == 1 || shard >= nShards) {
+                deleteDirectory(Paths.get(shardLocation(indexLoc, shard)));
+            }
+        }
+        if (nShards > 1) {
+            writeShardCount(indexLoc, nShards);
+        } else {
+            Files.deleteIfExists(Paths.get(indexLoc, SHARDS_FILE));
+        }
+    }
+
+    /**
+     * Function: checkShardCount
+     * Desc: Makes sure an index that is added to (or has one shard rebuilt) has nShards shards. A new sharded
+     *       index gets its shard count recorded.
+     * @param indexLoc: Location of the Lucene index directory.
+     * @param nShards: Number of shards the build expects (1 for an unsharded index).
+     */
+    public static void checkShardCount(String indexLoc, int nShards) throws IOException {
+        int recorded = readShardCount(indexLoc);
+        if (recorded == 0 && !findShardNumbers(indexLoc).isEmpty()) {
+            throw new IOException(indexLoc + " has shard directories but no " + SHARDS_FILE
+                    + " file, so its number of shards is unknown. Rebuild the index.");
+        }
+        if (nShards == 1) {
+            if (recorded > 0) {
+                throw new IOException(indexLoc + " is a sharded index with " + recorded + " shards");
+            }
+            return;
+        }
+        if (hasUnshardedIndex(indexLoc)) {
+            throw new IOException(indexLoc + " holds an unsharded index, not " + nShards + " shards");
+        }
+        if (recorded == 0) {
+            writeShardCount(indexLoc, nShards);
+        } else if (recorded != nShards) {
+            throw new IOException(indexLoc + " was built with " + recorded + " shards, not " + nShards);
+        }
+    }
+
+    private static void writeShardCount(String indexLoc, int nShards) throws IOException {
+        Files.createDirectories(Paths.get(indexLoc));
+        Files.write(Paths.get(indexLoc, SHARDS_FILE), String.valueOf(nShards).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Numbers of the shard-N directories in an index directory
+    private static List<Integer> findShardNumbers(String indexLoc) {
+        List<Integer> numbers = new ArrayList<>();
+        File[] files = new File(indexLoc).listFiles();
+        if (files == null) {
+            return numbers;
+        }
+        for (File f : files) {
+            if (f.isDirectory() && f.getName().matches("shard-\\d+")) {
+                numbers.add(Integer.parseInt(f.getName().substring("shard-".length())));
+            }
+        }
+        return numbers;
+    }
+
+    private static boolean hasUnshardedIndex(String indexLoc) throws IOException {
+        if (!new File(indexLoc).isDirectory()) {
+            return false;
+        }
+        try (Directory dir = FSDirectory.open(Paths.get(indexLoc))) {
+            return DirectoryReader.indexExists(dir);
+        }
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Function: getIndexSizeBytes
+     * Desc: Adds up the size of every file in an index directory (including the shard directories of a sharded
+     *       index).
+     * @param indexLoc: Location of the Lucene index directory.
+     * @return Total size in bytes
+     */
+    public static long getIndexSizeBytes(String indexLoc) {
+        long total = 0;
+        File[] files = new File(indexLoc).listFiles();
+        if (files == null) {
+            return 0;
+        }
+        for (File f : files) {
+            total += f.isDirectory() ? getIndexSizeBytes(f.getPath()) : f.length();
+        }
+        return total;
+    }
 }
@@ -0,0 +1,113 @@
+package edu.unh.cs753.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets (in the style of HdrHistogram): every power of two is
+ * split into 16 sub-buckets, so any recorded value is reported to within about 6%, whatever its magnitude.
+ * Recording is a couple of atomic increments, so it's cheap enough to leave on for every query.
+ *
+ * Values are recorded in nanoseconds.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Function: record
+     * Desc: Records one measurement.
+     * @param nanos: Measured latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = getCount();
+        return n == 0 ? 0.0 : getTotalNanos() / (double) n;
+    }
+
+    /**
+     * Function: getPercentileNanos
+     * Desc: Returns (an upper bound on) the latency below which the given percentage of measurements fall.
+     * @param percentile: Percentile between 0 and 100 (e.g. 99 for p99).
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = getCount();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    // Small values get a bucket each; larger ones share a bucket with values that have the same top 5 bits
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lower = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @return JSON object with the count and the mean, p50, p90, p99 and max latencies in milliseconds
+     */
+    public String toJson() {
+        return String.format("{\"count\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,"
+                        + "\"maxMs\":%.3f}",
+                getCount(), getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(90) / 1e6,
+                getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+    }
+
+    /**
+     * @return One-line summary in milliseconds: count, mean, p50, p90, p99 and max
+     */
+    public String summary() {
+        return String.format("n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                getCount(), getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(90) / 1e6,
+                getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+    }
+}
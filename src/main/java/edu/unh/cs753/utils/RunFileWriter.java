@@ -0,0 +1,92 @@
+package edu.unh.cs753.utils;
+
+import edu.unh.cs753.indexing.SearchResults;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a TREC run file one query at a time, through a fixed-size buffer on a FileChannel.
+ * Each query's results can be written (and then dropped) as soon as the query finishes, so memory use doesn't
+ * grow with the size of the run.
+ *
+ * Lines look like: "queryId Q0 paragraphId rank score methodName"
+ */
+public class RunFileWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final String methodName;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Function: RunFileWriter
+     * Desc: Creates (or overwrites) the run file, creating its parent directory if needed.
+     * @param path: Location of the run file.
+     * @param methodName: Name written in the last column of every line.
+     */
+    public RunFileWriter(String path, String methodName) throws IOException {
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        this.channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.methodName = methodName;
+    }
+
+    /**
+     * Function: write
+     * Desc: Appends the ranked results of one query.
+     * @param queryId: Id of the query (page id or section path).
+     * @param results: Results in rank order.
+     */
+    public synchronized void write(String queryId, SearchResults results) throws IOException {
+        // Looking up ids is its own stage, so it's kept out of the write timing
+        results.resolveIds();
+
+        long start = SearchMetrics.get().start();
+        for (int i = 0; i < results.size(); i++) {
+            line.setLength(0);
+            line.append(queryId).append(" Q0 ").append(results.getId(i)).append(' ')
+                .append(i + 1).append(' ').append((double) results.getScore(i)).append(' ')
+                .append(methodName).append('\n');
+            put(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        SearchMetrics.get().stop(SearchMetrics.Stage.WRITE, start);
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,154 @@
+package edu.unh.cs753.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timings of the search pipeline's stages, and query latency histograms per weighting scheme and
+ * query type (page vs section).
+ *
+ * Stage times are summed over all threads (so with 8 workers they can add up to 8x the wall clock time). They
+ * answer "where does the time go", not "how long did the run take". Recording is a System.nanoTime pair and a
+ * few LongAdder increments, so it's cheap enough to leave on; setEnabled(false) turns it off entirely.
+ */
+public class SearchMetrics {
+    private static final SearchMetrics instance = new SearchMetrics();
+
+    public enum Stage {
+        DECODE("outline decoding"),
+        ANALYSIS("query analysis"),
+        DOC_FREQ("df lookups"),
+        SCORING("postings scoring"),
+        ID_FETCH("paragraph id fetch"),
+        WRITE("run-file writing");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    private volatile boolean enabled = true;
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder[] stageCounts = new LongAdder[Stage.values().length];
+    private final Map<String, LatencyHistogram> queryLatency = new ConcurrentHashMap<>();
+
+    private SearchMetrics() {
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+            stageCounts[i] = new LongAdder();
+        }
+    }
+
+    public static SearchMetrics get() {
+        return instance;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Function: start
+     * Desc: Starts timing a stage. Pass the returned value to stop once the stage is done.
+     * @return The current time in nanoseconds (0 when metrics are off)
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Function: stop
+     * Desc: Adds the time since start to a stage.
+     */
+    public void stop(Stage stage, long start) {
+        if (start != 0L) {
+            stageNanos[stage.ordinal()].add(System.nanoTime() - start);
+            stageCounts[stage.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Function: recordQuery
+     * Desc: Records the end-to-end latency (query construction and search) of one query.
+     * @param method: Weighting scheme (run name, e.g. lnc_ltn).
+     * @param queryType: "page" or "section" (or how the queries were grouped).
+     * @param start: Value returned by start when the query began.
+     */
+    public void recordQuery(String method, String queryType, long start) {
+        if (start != 0L) {
+            queryLatency.computeIfAbsent(method + "/" + queryType, key -> new LatencyHistogram())
+                        .record(System.nanoTime() - start);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i].reset();
+            stageCounts[i].reset();
+        }
+        queryLatency.clear();
+    }
+
+    /**
+     * @return Multi-line summary: time per stage (and its share of all recorded time), then latency per method
+     */
+    public String summary() {
+        long total = 0;
+        for (LongAdder nanos : stageNanos) {
+            total += nanos.sum();
+        }
+
+        StringBuilder sb = new StringBuilder("Stage timings (summed over threads):\n");
+        for (Stage stage : Stage.values()) {
+            long nanos = stageNanos[stage.ordinal()].sum();
+            long count = stageCounts[stage.ordinal()].sum();
+            sb.append(String.format("  %-20s %10d calls %10.2f s %5.1f%% %10.2f us/call%n", stage.description,
+                    count, nanos / 1e9, 100.0 * nanos / Math.max(1, total), nanos / 1e3 / Math.max(1, count)));
+        }
+        sb.append("Query latency:\n");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(queryLatency).entrySet()) {
+            sb.append(String.format("  %-24s %s%n", entry.getKey(), entry.getValue().summary()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Function: writeJson
+     * Desc: Writes the stage timings and query latencies as a JSON report.
+     * @param path: Location of the report (overwritten).
+     */
+    public void writeJson(String path) throws IOException {
+        StringBuilder json = new StringBuilder("{\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            json.append(stage.ordinal() == 0 ? "" : ",")
+                .append('"').append(stage.name().toLowerCase()).append("\":{\"count\":")
+                .append(stageCounts[stage.ordinal()].sum()).append(",\"totalNanos\":")
+                .append(stageNanos[stage.ordinal()].sum()).append('}');
+        }
+        json.append("},\"queries\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(queryLatency).entrySet()) {
+            json.append(first ? "" : ",").append('"').append(entry.getKey()).append("\":")
+                .append(entry.getValue().toJson());
+            first = false;
+        }
+        json.append("}}\n");
+
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            out.write(json.toString());
+        }
+    }
+}
@@ -7,40 +7,109 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class contains static utility functions used for searching a Lucene index and tokenizing queries.
  */
 public class SearchUtils {
 
+    // Analyzers are thread-safe and reuse their token streams, so there's no need to make one per query
+    private static final Analyzer standardAnalyzer = new StandardAnalyzer();
+
+    // Shared by all sharded searchers; daemon threads so an open searcher never keeps the JVM alive
+    private static ExecutorService shardExecutor = null;
+
     /**
      * Function: createIndexSearcher
      * Desc: Creates an IndexSearcher (responsible for querying a Lucene index directory).
+     *       If the directory holds a sharded index (shard-0, shard-1, ...), the shards are opened together as one
+     *       MultiReader. Collection statistics (docFreq, numDocs, etc.) are then summed over all shards, so scores
+     *       are the same as for a single index, and the shards are searched concurrently.
+     *       Finalized indexes are memory-mapped (see IndexUtils.openIndexDirectory).
      * @param indexLoc: Location of a Lucene index directory.
      * @return IndexSearcher
      */
     public static IndexSearcher createIndexSearcher(String indexLoc) {
-        Path indexPath = Paths.get(indexLoc);
+        return createIndexSearcher(indexLoc, null, 0);
+    }
+
+    /**
+     * Function: createIndexSearcher
+     * Desc: Same as above, but each query is searched on several threads (see SlicedIndexSearcher), which lowers
+     *       the latency of a single query on an index with several segments. Results are the same as without.
+     * @param indexLoc: Location of a Lucene index directory.
+     * @param executor: Threads to search segments on (null searches each query on the calling thread only).
+     * @param parallelism: Number of slices to split the segments into (usually the executor's thread count).
+     * @return IndexSearcher
+     */
+    public static IndexSearcher createIndexSearcher(String indexLoc, ExecutorService executor, int parallelism) {
+        IndexSearcher searcher = null;
+        try {
+            List<String> shards = IndexUtils.listShardLocations(indexLoc);
+            if (!shards.isEmpty()) {
+                return createShardedIndexSearcher(shards);
+            }
+            DirectoryReader reader = DirectoryReader.open(IndexUtils.openIndexDirectory(indexLoc));
+            searcher = executor == null
+                    ? new IndexSearcher(reader)
+                    : new SlicedIndexSearcher(reader, executor, parallelism);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return searcher;
+    }
+
+    /**
+     * Function: createShardedIndexSearcher
+     * Desc: Opens each shard and searches them all through a single IndexSearcher. The searcher fans each query
+     *       out over the shards' segments on a thread pool and merges the per-shard top-k.
+     * @param shardLocs: Locations of the shard index directories.
+     * @return IndexSearcher over every shard
+     */
+    public static IndexSearcher createShardedIndexSearcher(List<String> shardLocs) {
         IndexSearcher searcher = null;
         try {
-            FSDirectory indexDir = FSDirectory.open(indexPath);
-            DirectoryReader reader = DirectoryReader.open(indexDir);
-            searcher = new IndexSearcher(reader);
+            DirectoryReader[] readers = new DirectoryReader[shardLocs.size()];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = DirectoryReader.open(IndexUtils.openIndexDirectory(shardLocs.get(i)));
+            }
+            searcher = new SlicedIndexSearcher(new MultiReader(readers), getShardExecutor(),
+                    Runtime.getRuntime().availableProcessors());
         } catch (IOException e) {
             e.printStackTrace();
         }
         return searcher;
     }
 
+    /**
+     * Function: createSearchExecutor
+     * Desc: A pool of daemon threads for searching segments in parallel (see createIndexSearcher).
+     */
+    public static ExecutorService createSearchExecutor(int nThreads) {
+        return Executors.newFixedThreadPool(nThreads, r -> {
+            Thread t = new Thread(r, "segment-search");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static synchronized ExecutorService getShardExecutor() {
+        if (shardExecutor == null) {
+            shardExecutor = createSearchExecutor(Runtime.getRuntime().availableProcessors());
+        }
+        return shardExecutor;
+    }
+
     /**
      * Function: createStandardBooleanQuery
      * Desc: Creates a boolean query (a bunch of terms joined with OR clauses) given a query string.
@@ -52,7 +121,7 @@ public class SearchUtils {
      */
     public static Query createStandardBooleanQuery(String queryString, String termField) {
         BooleanQuery.Builder builder = new BooleanQuery.Builder();
-        ArrayList<String> tokens = createTokenList(queryString, new StandardAnalyzer());
+        ArrayList<String> tokens = createTokenList(queryString, standardAnalyzer);
 
         for (String token : tokens) {
             Term term = new Term(termField, token);
@@ -0,0 +1,136 @@
+package edu.unh.cs753.utils;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An IndexSearcher that searches one query on several threads: the index's segments are grouped into slices,
+ * and each slice is collected on the executor.
+ *
+ * Lucene's default gives every segment its own slice, which with many small segments means many tiny tasks.
+ * Here neighbouring segments are grouped until a slice holds about maxDoc / parallelism documents (but at least
+ * minDocsPerSlice), and a big segment is a slice of its own. Slices are made of consecutive segments, in order,
+ * so when the per-slice top-k are merged, ties still go to the lower doc id and the results are exactly those of
+ * a sequential search.
+ *
+ * Searches through IndexSearcher and MaxScoreScorer use the slices. MultiSimilarityScorer and PageGroupedScorer
+ * (--single-pass, --page-grouped) still walk the segments on the calling thread; those runs spread pages over
+ * threads instead.
+ */
+public class SlicedIndexSearcher extends IndexSearcher {
+    public static final int DEFAULT_MIN_DOCS_PER_SLICE = 20000;
+
+    // IndexSearcher's constructor calls slices() before this class's fields are assigned, so the slicing
+    // parameters are handed over through this. It's set while evaluating the super() arguments, and cleared by
+    // slices() (in a finally) and again by the constructor, in case IndexSearcher didn't call slices().
+    private static final ThreadLocal<int[]> pendingSlicing = new ThreadLocal<>();
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int minDocsPerSlice;
+    // The segments of each slice (LeafSlice.leaves isn't visible outside Lucene's package); null without executor
+    private final List<LeafReaderContext[]> sliceLeaves;
+
+    /**
+     * @param reader: Reader to search.
+     * @param executor: Threads the slices are searched on.
+     * @param parallelism: Number of slices to aim for (usually the executor's thread count).
+     * @param minDocsPerSlice: Smallest slice worth a task of its own.
+     */
+    public SlicedIndexSearcher(IndexReader reader, ExecutorService executor, int parallelism, int minDocsPerSlice) {
+        super(withSlicing(reader, parallelism, minDocsPerSlice), executor);
+        pendingSlicing.remove();
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.minDocsPerSlice = minDocsPerSlice;
+        this.sliceLeaves = executor == null ? null
+                : groupLeaves(reader.leaves(), Math.max(1, parallelism), Math.max(1, minDocsPerSlice));
+    }
+
+    public SlicedIndexSearcher(IndexReader reader, ExecutorService executor, int parallelism) {
+        this(reader, executor, parallelism, DEFAULT_MIN_DOCS_PER_SLICE);
+    }
+
+    private static IndexReader withSlicing(IndexReader reader, int parallelism, int minDocsPerSlice) {
+        // The only thing IndexSearcher does before slices() that can fail is getContext() on a closed reader, so
+        // fail here first, before anything is left in the thread local
+        reader.getContext();
+        pendingSlicing.set(new int[] { Math.max(1, parallelism), Math.max(1, minDocsPerSlice) });
+        return reader;
+    }
+
+    /**
+     * Function: withSameSlicing
+     * Desc: A new searcher over the same reader with the same executor and slicing (e.g. to give a weighting
+     *       scheme its own similarity).
+     */
+    public SlicedIndexSearcher withSameSlicing() {
+        return new SlicedIndexSearcher(getIndexReader(), executor, parallelism, minDocsPerSlice);
+    }
+
+    public int getSliceCount() {
+        return leafSlices == null ? 1 : leafSlices.length;
+    }
+
+    /**
+     * Function: getSliceLeaves
+     * Desc: The segments of each slice, for scorers that search the slices themselves (e.g. MaxScoreScorer).
+     * @return The slices' segments, in doc id order, or null if there is no executor
+     */
+    public List<LeafReaderContext[]> getSliceLeaves() {
+        return sliceLeaves;
+    }
+
+    public ExecutorService getSliceExecutor() {
+        return executor;
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        int[] slicing = pendingSlicing.get();
+        try {
+            List<LeafReaderContext[]> groups = groupLeaves(leaves, slicing[0], slicing[1]);
+            LeafSlice[] slices = new LeafSlice[groups.size()];
+            for (int i = 0; i < slices.length; i++) {
+                slices[i] = new LeafSlice(groups.get(i));
+            }
+            return slices;
+        } finally {
+            pendingSlicing.remove();
+        }
+    }
+
+    /**
+     * Function: groupLeaves
+     * Desc: Groups consecutive segments into slices of about max(maxDoc / parallelism, minDocsPerSlice) documents.
+     */
+    static List<LeafReaderContext[]> groupLeaves(List<LeafReaderContext> leaves, int parallelism, int minDocsPerSlice) {
+        long totalDocs = 0;
+        for (LeafReaderContext leaf : leaves) {
+            totalDocs += leaf.reader().maxDoc();
+        }
+        long target = Math.max(minDocsPerSlice, (totalDocs + parallelism - 1) / parallelism);
+
+        List<LeafReaderContext[]> slices = new ArrayList<>();
+        List<LeafReaderContext> group = new ArrayList<>();
+        long groupDocs = 0;
+        for (LeafReaderContext leaf : leaves) {
+            group.add(leaf);
+            groupDocs += leaf.reader().maxDoc();
+            if (groupDocs >= target) {
+                slices.add(group.toArray(new LeafReaderContext[0]));
+                group.clear();
+                groupDocs = 0;
+            }
+        }
+        if (!group.isEmpty()) {
+            slices.add(group.toArray(new LeafReaderContext[0]));
+        }
+        return slices;
+    }
+}
@@ -0,0 +1,144 @@
+package edu.unh.cs753.utils;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Query-construction service for one index reader: a shared analyzer, a cached numDocs and a concurrent cache of
+ * document frequencies. Section queries repeat their page's terms over and over, so most df lookups (and the
+ * term dictionary seeks behind them) only have to happen once.
+ *
+ * There is one instance per reader (see forReader), and it is safe to use from several threads.
+ *
+ * A cached lookup costs less than reading the clock, so lookups aren't timed one by one: query builders time all
+ * of a query's lookups together and report the time with recordLookups.
+ */
+public class TermStatsCache {
+    private static final Map<IndexReader, TermStatsCache> caches = new ConcurrentHashMap<>();
+
+    private final IndexReader reader;
+    private final int numDocs;
+
+    // Analyzers reuse their token streams per thread, so one instance can be shared by every query builder
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final ConcurrentHashMap<Term, Integer> docFreqs = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private TermStatsCache(IndexReader reader) {
+        this.reader = reader;
+        this.numDocs = reader.numDocs();
+    }
+
+    /**
+     * Function: forReader
+     * Desc: Returns the cache belonging to a reader, creating it the first time. A reopened index has a new
+     *       reader, and therefore a new (empty) cache.
+     */
+    public static TermStatsCache forReader(IndexReader reader) {
+        TermStatsCache cache = caches.get(reader);
+        if (cache != null) {
+            return cache;
+        }
+        return caches.computeIfAbsent(reader, r -> {
+            // Forget the cache once its reader is closed
+            IndexReader.CacheHelper cacheHelper = r.getReaderCacheHelper();
+            if (cacheHelper != null) {
+                cacheHelper.addClosedListener(key -> caches.remove(r));
+            }
+            return new TermStatsCache(r);
+        });
+    }
+
+    public int getNumDocs() {
+        return numDocs;
+    }
+
+    /**
+     * Function: tokenize
+     * Desc: Tokenizes query text with the shared StandardAnalyzer.
+     */
+    public ArrayList<String> tokenize(String text) {
+        long start = SearchMetrics.get().start();
+        ArrayList<String> tokens = SearchUtils.createTokenList(text, analyzer);
+        SearchMetrics.get().stop(SearchMetrics.Stage.ANALYSIS, start);
+        return tokens;
+    }
+
+    /**
+     * Function: docFreq
+     * Desc: Number of documents containing the term, looked up in the index only the first time it's asked for.
+     */
+    public int docFreq(Term term) {
+        Integer df = docFreqs.get(term);
+        if (df == null) {
+            misses.increment();
+            try {
+                df = reader.docFreq(term);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            docFreqs.putIfAbsent(term, df);
+        } else {
+            hits.increment();
+        }
+        return df;
+    }
+
+    /**
+     * Function: recordLookups
+     * Desc: Records the time of one query's df lookups (since start) as the "df lookups" stage of SearchMetrics.
+     * @param start: Value of SearchMetrics.get().start() before the first lookup.
+     */
+    public void recordLookups(long start) {
+        SearchMetrics.get().stop(SearchMetrics.Stage.DOC_FREQ, start);
+    }
+
+    /**
+     * Function: getInverseTermFreq
+     * Desc: Standard idf: log10(N / df)
+     */
+    public double getInverseTermFreq(String term, String field) {
+        int df = docFreq(new Term(field, term));
+        return Math.log10(numDocs / (double) df);
+    }
+
+    /**
+     * Function: getProbIDF
+     * Desc: Probabilistic idf: max(0, log10((N - df) / df))
+     */
+    public double getProbIDF(String term, String field) {
+        int df = docFreq(new Term(field, term));
+        return Math.max(0.0, Math.log10((numDocs - (double) df) / df));
+    }
+
+    // Lookups that didn't go to the index
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long total = getHits() + getMisses();
+        return total == 0 ? 0.0 : getHits() / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("df cache: %d hits, %d misses (%.1f%% hit rate), %d distinct terms",
+                getHits(), getMisses(), 100.0 * getHitRate(), docFreqs.size());
+    }
+}
@@ -1,16 +1,18 @@
 package utils
 
+import edu.unh.cs753.evaluation.EvaluationStore
+import edu.unh.cs753.evaluation.Qrels
+import edu.unh.cs753.evaluation.RankCorrelation
+import edu.unh.cs753.evaluation.Run
+import edu.unh.cs753.indexing.SearchResults
 import edu.unh.cs753.utils.EvaluationUtils
-import edu.unh.cs753.utils.SearchUtils
-import org.apache.lucene.analysis.standard.StandardAnalyzer
+import edu.unh.cs753.utils.SearchMetrics
+import edu.unh.cs753.utils.TermStatsCache
 import org.apache.lucene.index.Term
 import org.apache.lucene.search.*
 import java.io.File
 import kotlin.math.log
 import kotlin.math.pow
-typealias queryRankings = HashMap<String, HashMap<String, Int>>
-typealias runRankings = List<Pair<String, queryRankings>>
-
 object KotlinEvaluationUtils {
     fun getNDCG(qrels: HashMap<String, HashMap<String, Int>>, runfiles: HashMap<String, ArrayList<String>>) =
         qrels
@@ -38,39 +40,73 @@ object KotlinEvaluationUtils {
             .average()
 
 
+    /**
+     * NDCG@20 on an EvaluationStore's qrels and run (same result as the HashMap version).
+     */
+    fun getNDCG(qrels: Qrels, run: Run): Double {
+        EvaluationUtils.checkSameStore(qrels, run)
+        return (0 until qrels.size())
+            .map { q ->
+                val relevantDocs = qrels.getJudgments(q)
+                val idealScore =
+                        relevantDocs.values()
+                            .sortedDescending()
+                            .take(20)
+                            .withIndex()
+                            .sumByDouble { (index, grade) -> calcNDCG(grade, index + 1) }
+
+                val index = run.indexOf(qrels.getQuery(q))
+                if (index >= 0) {
+                    run.getParagraphs(index)
+                        .take(20)
+                        .map { pid -> relevantDocs.get(pid, 0) }
+                        .withIndex()
+                        .sumByDouble { (rank, grade) -> calcNDCG(grade, rank + 1) }
+                        .div(idealScore)
+                } else { 0.0 } }
+            .average()
+    }
+
     private fun calcNDCG(grade: Int, rank: Int) =
             (2.0.pow(grade) - 1)
                 .div(log(1.0 + rank, 2.0))
 
 
-    private fun getInverseTermFreq(searcher: IndexSearcher, term: String, field: String = "text"): Double {
-        val nDocs = searcher.indexReader.numDocs()
-        val df = searcher.indexReader.docFreq(Term(field, term))
-        return Math.log10(nDocs.toDouble() / df.toDouble())
-    }
+    // Term statistics and analysis go through the reader's shared cache (see TermStatsCache)
+    private fun getInverseTermFreq(searcher: IndexSearcher, term: String, field: String = "text"): Double =
+            TermStatsCache.forReader(searcher.indexReader).getInverseTermFreq(term, field)
+
+    private fun getProbIDF(searcher: IndexSearcher, term: String, field: String = "text"): Double =
+            TermStatsCache.forReader(searcher.indexReader).getProbIDF(term, field)
+
+    private fun tokenize(text: String, searcher: IndexSearcher) =
+            TermStatsCache.forReader(searcher.indexReader).tokenize(text)
 
-    private fun getProbIDF(searcher: IndexSearcher, term: String, field: String = "text"): Double {
-        val nDocs = searcher.indexReader.numDocs()
-        val df = searcher.indexReader.docFreq(Term(field, term))
-        return Math.max(0.0, Math.log10((nDocs.toDouble() - df.toDouble()) / df.toDouble()))
+    // Runs all of a query's idf weighting and times it as one "df lookups" stage (instead of timing each lookup)
+    private inline fun <T> timeDocFreqs(searcher: IndexSearcher, weigh: () -> T): T {
+        val start = SearchMetrics.get().start()
+        val weighted = weigh()
+        TermStatsCache.forReader(searcher.indexReader).recordLookups(start)
+        return weighted
     }
 
     fun queryStandard(text: String, searcher: IndexSearcher) =
-            SearchUtils.createTokenList(text, StandardAnalyzer())
+            tokenize(text, searcher)
                 .map { term -> TermQuery(Term("text", term)) }
                 .fold(BooleanQuery.Builder()) { builder, boostedQuery ->
                     builder.add(BooleanClause(boostedQuery, BooleanClause.Occur.SHOULD)) }
                 .build()
 
     fun queryLTN(text: String, searcher: IndexSearcher) =
-            SearchUtils.createTokenList(text, StandardAnalyzer())
+            tokenize(text, searcher)
                 // |-> Get token frequencies
                 .groupingBy { it }
                 .eachCount()
 
                 // |-> Apply tf-idf
-                .map { (term, freq) ->
-                    term to (1.0 + Math.log10(freq.toDouble())) * getInverseTermFreq(searcher, term)  }
+                .let { termFreqs -> timeDocFreqs(searcher) {
+                    termFreqs.map { (term, freq) ->
+                        term to (1.0 + Math.log10(freq.toDouble())) * getInverseTermFreq(searcher, term) } } }
 
                 // |-> Use final weights to create boosted queries
                 .map { (term, tfidf) ->
@@ -80,7 +116,7 @@ object KotlinEvaluationUtils {
                 .build()
 
     fun queryBNN(text: String, searcher: IndexSearcher) =
-            SearchUtils.createTokenList(text, StandardAnalyzer())
+            tokenize(text, searcher)
                 .distinct()
                 .map { term ->
                     TermQuery(Term("text", term)) }
@@ -89,7 +125,7 @@ object KotlinEvaluationUtils {
                 .build()
 
     fun queryAPC(text: String, searcher: IndexSearcher): BooleanQuery {
-        val termFreqs = SearchUtils.createTokenList(text, StandardAnalyzer())
+        val termFreqs = tokenize(text, searcher)
             .groupingBy { it }
             .eachCount()
 
@@ -101,13 +137,15 @@ object KotlinEvaluationUtils {
                 term to (0.5 + (0.5 * freq) / maxFreq.toDouble()) }
 
             // |->  Then multiply by probabilistic IDF for these terms
-            .map { (term, augFreq) ->
-                term to augFreq * getProbIDF(searcher, term) }
+            .let { augFreqs -> timeDocFreqs(searcher) {
+                augFreqs.map { (term, augFreq) -> term to augFreq * getProbIDF(searcher, term) } } }
 
             // |-> Then normalize using cosine
+            // (If every term has a prob. IDF of 0, e.g. "lo si", the weights stay 0 instead of becoming 0 / 0 = NaN,
+            // which left the collector's sentinel hits with doc id Integer.MAX_VALUE in the results)
             .let { results: List<Pair<String, Double>> ->
-                val cosineNorm = 1.0 /
-                        results.sumByDouble { (_, freq) -> freq.pow(2.0) }.pow(0.5)
+                val length = results.sumByDouble { (_, freq) -> freq.pow(2.0) }.pow(0.5)
+                val cosineNorm = if (length == 0.0) 0.0 else 1.0 / length
                 results.map { (term, freq) -> term to freq * cosineNorm }}
 
             // |-> Turn final term weights into boosted queries
@@ -126,61 +164,50 @@ object KotlinEvaluationUtils {
 
 
     fun getSpearmanResults(resultLoc: String) {
-        val runs = getRuns(resultLoc)
-            .groupBy { it.first.split("_").first()  }
+        getRuns(resultLoc)
+            .groupBy { it.name.split("_").first()  }
             .forEach { (pageOrSection, results) ->
-                val standardRun = results.first { "standard" in it.first }.second
-                val otherRuns = results.filter { "standard" !in it.first }
+                val standardRun = results.first { "standard" in it.name }
+                val otherRuns = results.filter { "standard" !in it.name }
                 doSpearman(otherRuns, standardRun, "wee")
             }
 
     }
 
+    // Every run file of a directory, parsed in parallel into one store
     private fun getRuns(resultsLoc: String) =
-        File(resultsLoc)
-            .listFiles()
-            .map { run ->
-                run.nameWithoutExtension to EvaluationUtils.parseRunFile(run) }
+        EvaluationStore().loadRuns(File(resultsLoc).listFiles().map { it.path })
 
 
-    private fun doSpearman(runsToCompare: runRankings, bm25Run: queryRankings, queryType: String) {
-        runsToCompare.forEach { (run, rankings) ->
-            val correlation = compareToBm25(bm25Run, rankings)
-            println("$run & $correlation")
+    private fun doSpearman(runsToCompare: List<Run>, bm25Run: Run, queryType: String) {
+        runsToCompare.forEach { run ->
+            val correlation = compareToBm25(bm25Run, run)
+            println("${run.name} & $correlation")
         }
     }
 
 
-    private fun compareToBm25(bm25: queryRankings, run: queryRankings) =
-            bm25
-                .filter { (_, rankings) -> rankings.isNotEmpty() }
-                .mapNotNull { (query, rankings) ->
-                    val runRanks = run[query] ?: HashMap()
-                    val cor = generateSpearmanForQuery(rankings, runRanks)
+    private fun compareToBm25(bm25: Run, run: Run) =
+            (0 until bm25.size())
+                .filter { q -> bm25.getParagraphs(q).isNotEmpty() }
+                .mapNotNull { q ->
+                    val index = run.indexOf(bm25.getQuery(q))
+                    val (runParagraphs, runRanks) =
+                            if (index >= 0) run.getParagraphs(index) to run.getRanks(index)
+                            else IntArray(0) to IntArray(0)
+                    val cor = RankCorrelation.spearman(bm25.getParagraphs(q), bm25.getRanks(q), runParagraphs, runRanks)
                     if (! cor.isFinite()) null else cor }
                 .average()
 
 
-    private fun generateSpearmanForQuery(bm25Rankings: HashMap<String, Int>, runRanks: HashMap<String, Int>): Double {
-        val bm25RankingsToCompare: ArrayList<Int> = ArrayList()
-        val runRankingsToCompare: ArrayList<Int> = ArrayList()
-
-        bm25Rankings.forEach { (pid, paragraphRank) ->
-            val runParagraphRank = runRanks[pid]
-            if (runParagraphRank != null) {
-                bm25RankingsToCompare.add(paragraphRank)
-                runRankingsToCompare.add(runParagraphRank)
-            } else {
-                bm25RankingsToCompare.add(-1)
-                runRankingsToCompare.add(-1)
-            }
-        }
-        val maxDiff = bm25RankingsToCompare.zip(runRankingsToCompare)
-            .map { (v1, v2) -> (v1 - v2).toDouble().pow(2.0) }
-            .max()!!
-
-        return EvaluationUtils.calculateSpearman(bm25RankingsToCompare, runRankingsToCompare, maxDiff)
-//        return 0.0
+    /**
+     * Spearman correlation between a query's standard (BM25) results and another method's results, straight from
+     * the searches (paragraphs are matched by Lucene doc id, ranks start at 1 like in the run files).
+     */
+    fun getSpearman(bm25Results: SearchResults, results: SearchResults): Double {
+        val docs = { searchResults: SearchResults -> IntArray(searchResults.size()) { i -> searchResults.getDoc(i) } }
+        val ranks = { searchResults: SearchResults -> IntArray(searchResults.size()) { i -> i + 1 } }
+        return RankCorrelation.spearman(docs(bm25Results), ranks(bm25Results), docs(results), ranks(results))
     }
 
 }
@@ -1,107 +1,394 @@
 package utils
 
+import edu.unh.cs.treccar_v2.Data
+import edu.unh.cs753.evaluation.EvaluationStore
+import edu.unh.cs753.evaluation.Evaluator
+import edu.unh.cs753.evaluation.StreamingEvaluation
 import edu.unh.cs753.indexing.LuceneSearcher
+import edu.unh.cs753.indexing.QueryResultCache
+import edu.unh.cs753.indexing.SearchResults
 import edu.unh.cs753.utils.IndexUtils
+import edu.unh.cs753.utils.RunFileWriter
+import edu.unh.cs753.utils.SearchMetrics
 import edu.unh.cs753.utils.SearchUtils
+import edu.unh.cs753.utils.TermStatsCache
+import org.apache.lucene.search.IndexSearcher
 import org.apache.lucene.search.Query
 import org.apache.lucene.search.similarities.BM25Similarity
-import java.io.File
+import org.apache.lucene.search.similarities.Similarity
+import java.io.BufferedInputStream
+import java.io.FileInputStream
+import java.io.InputStream
+import java.util.ArrayDeque
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 
-private data class DocumentRanking(
-        val id: String,
-        val score: Double,
-        var rank: Int
+/**
+ * Runs tasks on a thread pool and hands their results back in submission order. At most a few tasks per thread
+ * are in flight at once, so only that many results are held in memory.
+ */
+private class OrderedExecutor(nThreads: Int) {
+    private val executor = Executors.newFixedThreadPool(nThreads)
+    private val window = nThreads * 4
+
+    fun <T, R> run(items: Sequence<T>, task: (T) -> R, consume: (R) -> Unit) {
+        val inFlight = ArrayDeque<Future<R>>()
+        items.forEach { item ->
+            if (inFlight.size >= window) {
+                consume(inFlight.removeFirst().get())
+            }
+            inFlight.addLast(executor.submit(Callable { task(item) }))
+        }
+        while (inFlight.isNotEmpty()) {
+            consume(inFlight.removeFirst().get())
+        }
+    }
+
+    fun shutdown() = executor.shutdown()
+}
+
+/**
+ * Results of one outline page, with one entry per method: the page-name query, and each section query (by id).
+ */
+private class PageResults(
+        val pageId: String,
+        val page: List<SearchResults>,
+        val sections: List<Pair<String, List<SearchResults>>>
+) {
+    // Fetches every result's paragraph ids (on the worker thread, instead of on the thread writing the runs) and
+    // keeps only the best-ranked hit of each paragraph, so runs, evaluation and Spearman all see the same ranking
+    fun distinctIds() = PageResults(pageId, page.map { it.distinctIds() },
+            sections.map { (sectionId, results) -> Pair(sectionId, results.map { it.distinctIds() }) })
+}
+
+/**
+ * Hands items to a single background thread in order. At most window items are queued; past that, accept waits
+ * for the oldest one to finish (and rethrows its error, if it failed).
+ */
+private class AsyncConsumer<T>(private val window: Int, private val consume: (T) -> Unit) {
+    private val executor = Executors.newSingleThreadExecutor()
+    private val pending = ArrayDeque<Future<*>>()
+
+    fun accept(item: T) {
+        if (pending.size >= window) {
+            pending.removeFirst().get()
+        }
+        pending.addLast(executor.submit(Callable { consume(item) }))
+    }
+
+    // Waits for everything queued so far
+    fun close() {
+        try {
+            while (pending.isNotEmpty()) {
+                pending.removeFirst().get()
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
+
+/**
+ * Per-query Spearman correlations between each method and the standard one, averaged the same way as
+ * KotlinEvaluationUtils.getSpearmanResults (queries the standard method found nothing for are skipped, and so are
+ * correlations that aren't finite).
+ */
+private class SpearmanAverages(private val methods: List<SearchMethod>) {
+    private val standard = methods.indexOfFirst { it.runName == "standard" }
+    private val sums = DoubleArray(methods.size)
+    private val counts = IntArray(methods.size)
+
+    fun add(results: List<SearchResults>) {
+        if (standard < 0 || results[standard].size() == 0) {
+            return
+        }
+        results.forEachIndexed { m, methodResults ->
+            if (m != standard) {
+                val correlation = KotlinEvaluationUtils.getSpearman(results[standard], methodResults)
+                if (correlation.isFinite()) {
+                    sums[m] += correlation
+                    counts[m]++
+                }
+            }
+        }
+    }
+
+    fun print(queryType: String) {
+        methods.forEachIndexed { m, method ->
+            if (m != standard) {
+                println("${queryType}_${method.runName} & ${if (counts[m] == 0) Double.NaN else sums[m] / counts[m]}")
+            }
+        }
+    }
+}
+
+/**
+ * A weighting scheme: the similarity documents are scored with, and how query text is turned into a query.
+ */
+class SearchMethod(
+        val runName: String,
+        val methodName: String,
+        val similarity: Similarity,
+        val queryCreator: (String, IndexSearcher) -> Query
 )
 
 object KotlinSearchUtils {
 
-    public fun runAssignment3Search(indexLoc: String, queryLoc: String) {
+    /**
+     * The weighting schemes we compare, each with its similarity and query builder.
+     */
+    fun createSearchMethods(searcher: LuceneSearcher): List<SearchMethod> =
+            listOf(
+                // Standard page-level and section-level results
+                SearchMethod("standard", "standard", BM25Similarity()) { text, s ->
+                    KotlinEvaluationUtils.queryStandard(text, s) },
+
+                // lnc.ltn page-level and section-level results
+                SearchMethod("lnc_ltn", "lnc.ltn", searcher.createLncSimilarity()) { text, s ->
+                    KotlinEvaluationUtils.queryLTN(text, s) },
+
+                // bnn.bnn page-level and section-level results
+                SearchMethod("bnn_bnn", "bnn.bnn", searcher.createBnnSimilarity()) { text, s ->
+                    KotlinEvaluationUtils.queryBNN(text, s) },
+
+                // anc.apc page-level and section-level results
+                SearchMethod("anc_apc", "anc.apc", searcher.createAncSimilarity()) { text, s ->
+                    KotlinEvaluationUtils.queryAPC(text, s) }
+        )
+
+    /**
+     * Query text for warming up a searcher: page names and section queries from an outline file.
+     */
+    fun getSampleQueries(cborLoc: String, limit: Int): List<String> =
+            BufferedInputStream(FileInputStream(cborLoc)).use { stream ->
+                IndexUtils.createPageIterator(stream)
+                    .asSequence()
+                    .flatMap { page -> (listOf(page.pageName) + getSectionQueries(page).map { it.first }).asSequence() }
+                    .take(limit)
+                    .toList()
+            }
+
+    public fun runAssignment3Search(indexLoc: String, queryLoc: String, nThreads: Int, singlePass: Boolean,
+                                    pageGrouped: Boolean, cacheSize: Int) {
 //        val searcher = SearchUtils.createIndexSearcher(indexLoc)
 
+        val searcher = openSearcher(indexLoc, cacheSize)
+        val methods = createSearchMethods(searcher)
 
-        // Write standard page-level and section-level results
-        val searcher = LuceneSearcher(indexLoc, queryLoc)
-        doPageQueries(searcher) { text: String -> KotlinEvaluationUtils.queryStandard(text, searcher.searcher) }
-            .run {  writeResults("page_standard", "standard", this) }
-        doSectionQueries(searcher) { text: String -> KotlinEvaluationUtils.queryStandard(text, searcher.searcher) }
-            .run {  writeResults("section_standard", "standard", this) }
-
-        // Write lnc.ltn page-level and section-level results
-        searcher.searcher.setSimilarity(searcher.createLncSimilarity())
-        doPageQueries(searcher) { text: String -> KotlinEvaluationUtils.queryLTN(text, searcher.searcher) }
-            .run { writeResults("page_lnc_ltn", "lnc.ltn", this) }
-        doSectionQueries(searcher) { text: String -> KotlinEvaluationUtils.queryLTN(text, searcher.searcher) }
-            .run { writeResults("section_lnc_ltn", "lnc.ltn", this) }
-
-        // Write bnn.bnn page-level and section-level results
-        searcher.searcher.setSimilarity(searcher.createBnnSimilarity())
-        doPageQueries(searcher) { text: String -> KotlinEvaluationUtils.queryBNN(text, searcher.searcher) }
-            .run { writeResults("page_bnn_bnn", "bnn.bnn", this) }
-        doSectionQueries(searcher) { text: String -> KotlinEvaluationUtils.queryBNN(text, searcher.searcher) }
-            .run { writeResults("section_bnn_bnn", "bnn.bnn", this) }
-
-        // Write anc.apc page-level and section-level results
-        searcher.searcher.setSimilarity(searcher.createAncSimilarity())
-        doPageQueries(searcher) { text: String -> KotlinEvaluationUtils.queryAPC(text, searcher.searcher) }
-            .run { writeResults("page_anc_apc", "anc.apc", this) }
-        doSectionQueries(searcher) { text: String -> KotlinEvaluationUtils.queryAPC(text, searcher.searcher) }
-            .run { writeResults("section_anc_apc", "anc.apc", this) }
+        val pageWriters = methods.map { method -> createRunWriter("page_${method.runName}", method.methodName) }
+        val sectionWriters = methods.map { method -> createRunWriter("section_${method.runName}", method.methodName) }
+
+        try {
+            searchOutlines(searcher, methods, queryLoc, nThreads, singlePass, pageGrouped, {},
+                    { results -> writePageResults(results, pageWriters, sectionWriters) })
+        } finally {
+            (pageWriters + sectionWriters).forEach { it.close() }
+        }
 
     }
 
-    private fun doPageQueries(searcher: LuceneSearcher, queryCreator: (String) -> Query) =
-        searcher.pages
-            .map { page ->
-                val name = page.pageName
-                val results = searcher.doSearch(queryCreator(name))
-                getRankings(page.pageId, results)
+    /**
+     * Searches the outlines like runAssignment3Search, but scores the results as they come out of the searches
+     * (MAP, R-prec, NDCG and the rest of the Evaluator metrics, and Spearman against the standard method) instead
+     * of going through run files. Run files are only written if writeRuns is set, on a thread of their own.
+     *
+     * @param pageQrelsLoc: Qrels for the page runs (null to not evaluate them).
+     * @param sectionQrelsLoc: Qrels for the section runs (null to not evaluate them).
+     * @param k: Cutoff of NDCG@k, P@k and recall@k.
+     */
+    fun runSearchAndEvaluate(indexLoc: String, queryLoc: String, pageQrelsLoc: String?, sectionQrelsLoc: String?,
+                             nThreads: Int, singlePass: Boolean, pageGrouped: Boolean, cacheSize: Int,
+                             writeRuns: Boolean, k: Int) {
+        val searcher = openSearcher(indexLoc, cacheSize)
+        val methods = createSearchMethods(searcher)
+
+        val store = EvaluationStore()
+        val createEvaluation = { qrelsLoc: String?, queryType: String ->
+            qrelsLoc?.let { StreamingEvaluation(Evaluator(store.loadQrels(it), k),
+                    methods.map { method -> "${queryType}_${method.runName}" }) }
+        }
+        val pageEvaluation = createEvaluation(pageQrelsLoc, "page")
+        val sectionEvaluation = createEvaluation(sectionQrelsLoc, "section")
+        val pageSpearman = SpearmanAverages(methods)
+        val sectionSpearman = SpearmanAverages(methods)
+
+        // Run files are optional, and written on their own thread so writing never holds up the searches
+        val writtenMethods = if (writeRuns) methods else emptyList()
+        val pageWriters = writtenMethods.map { createRunWriter("page_${it.runName}", it.methodName) }
+        val sectionWriters = writtenMethods.map { createRunWriter("section_${it.runName}", it.methodName) }
+        val runWriter = if (writeRuns) AsyncConsumer<PageResults>(nThreads * 4) { results ->
+            writePageResults(results, pageWriters, sectionWriters) } else null
+
+        try {
+            searchOutlines(searcher, methods, queryLoc, nThreads, singlePass, pageGrouped,
+                    { results -> evaluatePageResults(results, pageEvaluation, sectionEvaluation) },
+                    { results ->
+                        pageSpearman.add(results.page)
+                        results.sections.forEach { (_, sectionResults) -> sectionSpearman.add(sectionResults) }
+                        sectionSpearman.add(results.page)
+                        runWriter?.accept(results)
+                    })
+        } finally {
+            runWriter?.close()
+            (pageWriters + sectionWriters).forEach { it.close() }
+        }
+
+        listOfNotNull(pageEvaluation, sectionEvaluation).forEach { print(it.results.formatTable()) }
+        println("Spearman correlation with standard:")
+        pageSpearman.print("page")
+        sectionSpearman.print("section")
+    }
+
+    private fun openSearcher(indexLoc: String, cacheSize: Int): LuceneSearcher {
+        val searcher = LuceneSearcher(indexLoc)
+        if (cacheSize > 0) {
+            searcher.setResultCache(QueryResultCache(cacheSize))
+        }
+        return searcher
+    }
+
+    /**
+     * Searches every page of an outline file with every method.
+     *
+     * Outline pages are decoded lazily, in one pass over the cbor file, and each page is searched with every method
+     * while it's in memory. Pages are spread over the pool: onSearched runs on the worker thread that searched the
+     * page, and consume gets the results in the original page order as they finish, so only the pages in flight are
+     * held in memory.
+     */
+    private fun searchOutlines(searcher: LuceneSearcher, methods: List<SearchMethod>, queryLoc: String,
+                               nThreads: Int, singlePass: Boolean, pageGrouped: Boolean,
+                               onSearched: (PageResults) -> Unit, consume: (PageResults) -> Unit) {
+        val searchPage = when {
+            singlePass -> createSinglePassSearch(searcher, methods)
+            pageGrouped -> createPageGroupedSearch(searcher, methods)
+            else -> createPerQuerySearch(searcher, methods)
+        }
+
+        val runner = OrderedExecutor(nThreads)
+        try {
+            BufferedInputStream(FileInputStream(queryLoc)).use { stream ->
+                runner.run(decodePages(stream),
+                        { page -> searchPage(page).distinctIds().also(onSearched) },
+                        consume)
             }
+        } finally {
+            runner.shutdown()
+            println(TermStatsCache.forReader(searcher.searcher.indexReader))
+            searcher.resultCache?.let { println(it) }
+        }
+    }
 
-    private fun doSectionQueries(searcher: LuceneSearcher, queryCreator: (String) -> Query) =
-            searcher.pages
-                .flatMap { page ->
-                    val sections = page.flatSectionPaths()
-                        .map { page.pageName + " " + it.map { it.heading }.joinToString(" ") to
-                                page.pageId + "/" + it.map { it.headingId }.joinToString("/") } +
-                            (page.pageName to page.pageId)
+    // Pages of an outline file, decoded as the sequence is consumed (and timed as the DECODE stage)
+    private fun decodePages(stream: InputStream): Sequence<Data.Page> {
+        val pages = IndexUtils.createPageIterator(stream).iterator()
+        return generateSequence {
+            val start = SearchMetrics.get().start()
+            val page = if (pages.hasNext()) pages.next() else null
+            SearchMetrics.get().stop(SearchMetrics.Stage.DECODE, start)
+            page
+        }
+    }
 
+    // A single page's section queries: page name + headings (query text to query id)
+    private fun getSectionQueries(page: Data.Page) =
+            page.flatSectionPaths()
+                .map { page.pageName + " " + it.map { it.heading }.joinToString(" ") to
+                        page.pageId + "/" + it.map { it.headingId }.joinToString("/") }
 
-                    val runResults = sections.map { (queryName, queryId) ->
-                        val results = searcher.doSearch(queryCreator(queryName))
-                        getRankings(queryId, results)
-                    }
-                    runResults }
+    /**
+     * Searches each of a page's queries separately, with one searcher per method.
+     */
+    private fun createPerQuerySearch(searcher: LuceneSearcher,
+                                     methods: List<SearchMethod>): (Data.Page) -> PageResults {
+        val methodSearchers = methods.map { method -> searcher.withSimilarity(method.similarity) }
+        val search = { queryText: String, queryType: String ->
+            methods.mapIndexed { m, method ->
+                val start = SearchMetrics.get().start()
+                val results = methodSearchers[m].doSearch(method.queryCreator(queryText, methodSearchers[m].searcher))
+                SearchMetrics.get().recordQuery(method.runName, queryType, start)
+                results
+            }
+        }
 
+        return { page ->
+            PageResults(page.pageId, search(page.pageName, "page"),
+                    getSectionQueries(page).map { (queryText, queryId) -> queryId to search(queryText, "section") })
+        }
+    }
 
-    private fun getRankings(id: String, results: List<LuceneSearcher.idScore>) =
-            results
-                .groupBy { it.i }
-                .map { it.key to it.value.maxBy { it.s }!!.s.toDouble() }
-                .sortedByDescending { (_, score) -> score }
-                .mapIndexed { index, idScore ->
-                    DocumentRanking(id = idScore.first, score = idScore.second, rank = index + 1) }
-                .let { rankings -> id to rankings }
+    /**
+     * Searches a page's queries with a PageGroupedScorer per method, which scores the page name once and only adds
+     * the heading terms for each section.
+     */
+    private fun createPageGroupedSearch(searcher: LuceneSearcher,
+                                        methods: List<SearchMethod>): (Data.Page) -> PageResults {
+        val methodSearchers = methods.map { method -> searcher.withSimilarity(method.similarity) }
+        val scorers = methodSearchers.map { it.createPageGroupedScorer() }
 
+        return { page ->
+            val sections = getSectionQueries(page)
+            val grouped = methods.mapIndexed { m, method ->
+                val start = SearchMetrics.get().start()
+                val methodSearcher = methodSearchers[m]
+                val results = methodSearcher.doSearchPageGrouped(scorers[m],
+                        method.queryCreator(page.pageName, methodSearcher.searcher),
+                        sections.map { (queryText, _) -> method.queryCreator(queryText, methodSearcher.searcher) })
+                SearchMetrics.get().recordQuery(method.runName, "page_group", start)
+                results
+            }
+            PageResults(page.pageId, grouped.map { it[0] },
+                    sections.mapIndexed { index, (_, queryId) -> queryId to grouped.map { it[index + 1] } })
+        }
+    }
 
-    private fun writeResults(outName: String, methodName: String, results: List<Pair<String, List<DocumentRanking>>>) {
-        File("results/")
-            .run { if (!exists()) mkdir() }
+    /**
+     * Searches each of a page's queries with a MultiSimilarityScorer: a query's postings are walked once, and the
+     * results for all methods come out of that one traversal.
+     */
+    private fun createSinglePassSearch(searcher: LuceneSearcher,
+                                       methods: List<SearchMethod>): (Data.Page) -> PageResults {
+        val scorer = searcher.createMultiSimilarityScorer(methods.map { it.similarity })
+        val search = { queryText: String, queryType: String ->
+            val start = SearchMetrics.get().start()
+            val results = searcher.doSearchAll(scorer,
+                    methods.map { method -> method.queryCreator(queryText, searcher.searcher) })
+            SearchMetrics.get().recordQuery("single_pass", queryType, start)
+            results
+        }
 
-        val out = File("results/$outName.run")
-            .bufferedWriter()
+        return { page ->
+            PageResults(page.pageId, search(page.pageName, "page"),
+                    getSectionQueries(page).map { (queryText, queryId) -> queryId to search(queryText, "section") })
+        }
+    }
 
-        results.forEach { (query, rankings) ->
-            rankings
-                .map { (id, score, rank) -> "$query Q0 $id $rank $score $methodName" }
-                .joinToString("\n")
-                .let { rankingsString -> out.write(rankingsString + "\n") }
+    private fun writePageResults(results: PageResults, pageWriters: List<RunFileWriter>,
+                                 sectionWriters: List<RunFileWriter>) {
+        results.page.forEachIndexed { m, methodResults -> pageWriters[m].write(results.pageId, methodResults) }
+        results.sections.forEach { (queryId, sectionResults) ->
+            sectionResults.forEachIndexed { m, methodResults -> sectionWriters[m].write(queryId, methodResults) }
         }
 
-        out.close()
+        // The page-name query is also the last "section" query of the page
+        results.page.forEachIndexed { m, methodResults -> sectionWriters[m].write(results.pageId, methodResults) }
+    }
+
+    // Scores a page's results; the page-name query is also the last "section" query, as in the run files
+    private fun evaluatePageResults(results: PageResults, pageEvaluation: StreamingEvaluation?,
+                                    sectionEvaluation: StreamingEvaluation?) {
+        val add = { evaluation: StreamingEvaluation?, queryId: String, methodResults: List<SearchResults> ->
+            if (evaluation != null) {
+                methodResults.forEachIndexed { m, hits ->
+                    evaluation.add(m, queryId, Array(hits.size()) { i -> hits.getId(i) }) }
+            }
+        }
+        add(pageEvaluation, results.pageId, results.page)
+        results.sections.forEach { (queryId, sectionResults) -> add(sectionEvaluation, queryId, sectionResults) }
+        add(sectionEvaluation, results.pageId, results.page)
     }
 
-    fun getPages(cborLoc: String) =
-            IndexUtils.createPageIterator(cborLoc)
-                .toList()
+    private fun createRunWriter(outName: String, methodName: String) =
+            RunFileWriter("results/$outName.run", methodName)
 
-}
\ No newline at end of file
+}